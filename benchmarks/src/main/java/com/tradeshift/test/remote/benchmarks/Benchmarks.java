@@ -0,0 +1,32 @@
+package com.tradeshift.test.remote.benchmarks;
+
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunNotifier;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+public class Benchmarks {
+
+	/**
+	 * Run a test class on the servers and return the result.
+	 */
+	public static Result run(LocalServers servers, Class<?> testClass) throws Exception {
+		RunNotifier notifier = new RunNotifier();
+		Result result = new Result();
+		notifier.addListener(result.createListener());
+		servers.run(testClass, notifier);
+		return result;
+	}
+
+	/**
+	 * Run a test class once and fail if it doesn't pass, so a broken setup isn't measured as being fast.
+	 */
+	public static void check(LocalServers servers, Class<?> testClass) throws Exception {
+		Result result = run(servers, testClass);
+		if (!result.wasSuccessful() || result.getRunCount() == 0) {
+			throw new IllegalStateException(testClass.getName() + " failed on " + servers.getEndpoints() + ": "
+					+ result.getFailures());
+		}
+	}
+}
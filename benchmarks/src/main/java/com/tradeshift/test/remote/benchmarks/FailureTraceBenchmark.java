@@ -0,0 +1,121 @@
+package com.tradeshift.test.remote.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.tradeshift.test.remote.internal.BinaryResultReader;
+import com.tradeshift.test.remote.internal.BinaryResultWriter;
+import com.tradeshift.test.remote.internal.ResultHandler;
+import com.tradeshift.test.remote.internal.ResultReader;
+import com.tradeshift.test.remote.internal.ResultWriter;
+import com.tradeshift.test.remote.internal.TextResultReader;
+import com.tradeshift.test.remote.internal.TextResultWriter;
+
+/**
+ * Cost of writing and reading back a failure with a deep stack trace and a chain of causes, as thrown by tests
+ * failing inside a framework.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FailureTraceBenchmark {
+
+	@Param({ "text", "binary" })
+	public String protocol;
+
+	@Param({ "200" })
+	public int depth;
+
+	private Failure failure;
+	private byte[] response;
+
+	@Setup
+	public void setUp() throws Exception {
+		Throwable cause = null;
+		for (int i = 0; i < 3; i++) {
+			cause = deep(depth, new IllegalStateException("Failure " + i, cause));
+		}
+		failure = new Failure(Description.createTestDescription(NoopTest.class, "noop"), cause);
+		response = write();
+	}
+
+	@Benchmark
+	public byte[] write() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ResultWriter writer = createWriter(bytes);
+		writer.testStarted(failure.getDescription());
+		writer.testFailure(failure);
+		writer.testFinished(failure.getDescription());
+		writer.done();
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public void read(final Blackhole blackhole) throws Throwable {
+		ResultReader reader = "binary".equals(protocol) ? new BinaryResultReader() : new TextResultReader(null);
+		reader.read(new ByteArrayInputStream(response), new ResultHandler() {
+			@Override
+			public void testStarted(String methodName) {
+			}
+
+			@Override
+			public void testFinished(String methodName) {
+			}
+
+			@Override
+			public void testFailure(String methodName, Throwable t) {
+				blackhole.consume(t);
+			}
+
+			@Override
+			public void testAssumptionFailure(String methodName, Throwable t) {
+			}
+
+			@Override
+			public void testIgnored(String methodName) {
+			}
+
+			@Override
+			public void timing(long queueMillis, long runMillis) {
+			}
+
+			@Override
+			public void output(boolean err, byte[] b, int off, int len) {
+			}
+		});
+	}
+
+	private ResultWriter createWriter(ByteArrayOutputStream bytes) throws Exception {
+		return "binary".equals(protocol) ? new BinaryResultWriter(bytes, 0) : new TextResultWriter(bytes, true, 0);
+	}
+
+	/**
+	 * Create the throwable with the given number of frames on the stack below it.
+	 */
+	private static Throwable deep(int depth, Throwable t) {
+		if (depth > 0) {
+			return deep(depth - 1, t);
+		}
+		t.fillInStackTrace();
+		return t;
+	}
+}
@@ -0,0 +1,85 @@
+package com.tradeshift.test.remote.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.server.Server;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+import com.tradeshift.test.remote.Options;
+import com.tradeshift.test.remote.internal.DispatchThreadPool;
+import com.tradeshift.test.remote.internal.InternalRemoteRunner;
+import com.tradeshift.test.remote.internal.RedirectingStream;
+import com.tradeshift.test.remote.internal.TestHandler;
+
+/**
+ * Remote servers running in the benchmark JVM on ephemeral ports, set up the same way as
+ * {@link com.tradeshift.test.remote.RemoteServer}. Output of the tests is captured as usual, but not copied to the
+ * console, so it doesn't drown the benchmark results.
+ */
+public class LocalServers {
+
+	private final List<Server> servers = new ArrayList<Server>();
+	private final StringBuilder endpoints = new StringBuilder();
+	private PrintStream originalOut;
+	private PrintStream originalErr;
+
+	public void start(int count, Options opts) throws Exception {
+		originalOut = System.out;
+		originalErr = System.err;
+		PrintStream discard = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		RedirectingStream out = new RedirectingStream(discard);
+		RedirectingStream err = new RedirectingStream(discard);
+		System.setOut(new PrintStream(out));
+		System.setErr(new PrintStream(err));
+
+		// Don't let the benchmarks write a duration file, or reorder tests
+		System.setProperty("junit.remote.durations", "");
+
+		for (int i = 0; i < count; i++) {
+			Server server = new Server(0);
+			server.setThreadPool(new DispatchThreadPool());
+			server.setHandler(new TestHandler(opts, out, err));
+			server.start();
+			servers.add(server);
+			if (endpoints.length() > 0) {
+				endpoints.append(',');
+			}
+			endpoints.append("http://localhost:").append(server.getConnectors()[0].getLocalPort()).append('/');
+		}
+	}
+
+	/**
+	 * The urls of the servers, separated by commas.
+	 */
+	public String getEndpoints() {
+		return endpoints.toString();
+	}
+
+	/**
+	 * Run all tests of a class on the servers, the way RemoteTestRunner does.
+	 */
+	public void run(Class<?> testClass, RunNotifier notifier) throws Exception {
+		new InternalRemoteRunner(testClass, getEndpoints(), BlockJUnit4ClassRunner.class, false).run(notifier);
+	}
+
+	public void stop() throws Exception {
+		for (Server server : servers) {
+			server.stop();
+		}
+		servers.clear();
+		System.setOut(originalOut);
+		System.setErr(originalErr);
+	}
+}
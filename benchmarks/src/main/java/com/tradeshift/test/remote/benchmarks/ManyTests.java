@@ -0,0 +1,139 @@
+package com.tradeshift.test.remote.benchmarks;
+
+import org.junit.Test;
+
+/**
+ * A class with many trivial tests, for measuring how many tests the client gets through.
+ */
+public class ManyTests {
+
+	public static final int COUNT = 32;
+
+	@Test
+	public void test1() {
+	}
+
+	@Test
+	public void test2() {
+	}
+
+	@Test
+	public void test3() {
+	}
+
+	@Test
+	public void test4() {
+	}
+
+	@Test
+	public void test5() {
+	}
+
+	@Test
+	public void test6() {
+	}
+
+	@Test
+	public void test7() {
+	}
+
+	@Test
+	public void test8() {
+	}
+
+	@Test
+	public void test9() {
+	}
+
+	@Test
+	public void test10() {
+	}
+
+	@Test
+	public void test11() {
+	}
+
+	@Test
+	public void test12() {
+	}
+
+	@Test
+	public void test13() {
+	}
+
+	@Test
+	public void test14() {
+	}
+
+	@Test
+	public void test15() {
+	}
+
+	@Test
+	public void test16() {
+	}
+
+	@Test
+	public void test17() {
+	}
+
+	@Test
+	public void test18() {
+	}
+
+	@Test
+	public void test19() {
+	}
+
+	@Test
+	public void test20() {
+	}
+
+	@Test
+	public void test21() {
+	}
+
+	@Test
+	public void test22() {
+	}
+
+	@Test
+	public void test23() {
+	}
+
+	@Test
+	public void test24() {
+	}
+
+	@Test
+	public void test25() {
+	}
+
+	@Test
+	public void test26() {
+	}
+
+	@Test
+	public void test27() {
+	}
+
+	@Test
+	public void test28() {
+	}
+
+	@Test
+	public void test29() {
+	}
+
+	@Test
+	public void test30() {
+	}
+
+	@Test
+	public void test31() {
+	}
+
+	@Test
+	public void test32() {
+	}
+}
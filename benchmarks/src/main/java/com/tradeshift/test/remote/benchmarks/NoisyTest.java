@@ -0,0 +1,18 @@
+package com.tradeshift.test.remote.benchmarks;
+
+import org.junit.Test;
+
+/**
+ * A test writing a lot of output, which is captured by the server and sent to the client.
+ */
+public class NoisyTest {
+
+	public static final int LINES = 10000;
+
+	@Test
+	public void noisy() {
+		for (int i = 0; i < LINES; i++) {
+			System.out.println("Line " + i + " of output from a test which writes a lot of output to System.out");
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package com.tradeshift.test.remote.benchmarks;
+
+import org.junit.Test;
+
+/**
+ * A test doing nothing, so only the round trip is measured.
+ */
+public class NoopTest {
+
+	@Test
+	public void noop() {
+	}
+}
@@ -0,0 +1,103 @@
+package com.tradeshift.test.remote.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tradeshift.test.remote.Options;
+import com.tradeshift.test.remote.internal.BinaryResultWriter;
+import com.tradeshift.test.remote.internal.RedirectingStream;
+import com.tradeshift.test.remote.internal.ResultWriter;
+import com.tradeshift.test.remote.internal.TextResultWriter;
+
+/**
+ * Cost of test output: a test writing {@link NoisyTest#LINES} lines run on a local server, and the same lines written
+ * through the server's capture path (RedirectingStream to a result writer) without any network in between.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Remote {
+		private final LocalServers servers = new LocalServers();
+
+		@Setup
+		public void start() throws Exception {
+			servers.start(1, new Options());
+			Benchmarks.check(servers, NoisyTest.class);
+		}
+
+		@TearDown
+		public void stop() throws Exception {
+			servers.stop();
+		}
+	}
+
+	/**
+	 * A capture set up for the benchmark thread, as a worker sets it up for the test it runs.
+	 */
+	@State(Scope.Thread)
+	public static class Capture {
+		@Param({ "text", "binary" })
+		public String protocol;
+
+		PrintStream out;
+		ResultWriter writer;
+		private RedirectingStream redirecting;
+
+		@Setup(Level.Iteration)
+		public void start() throws IOException {
+			OutputStream discard = new OutputStream() {
+				@Override
+				public void write(int b) {
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+				}
+			};
+			writer = "binary".equals(protocol) ? new BinaryResultWriter(discard, 0) : new TextResultWriter(discard, true, 0);
+			redirecting = new RedirectingStream(new PrintStream(discard));
+			redirecting.setRedirector(writer.getOut());
+			out = new PrintStream(redirecting);
+		}
+
+		@TearDown(Level.Iteration)
+		public void stop() {
+			redirecting.setRedirector(null);
+		}
+	}
+
+	@Benchmark
+	public Result remote(Remote remote) throws Exception {
+		return Benchmarks.run(remote.servers, NoisyTest.class);
+	}
+
+	@Benchmark
+	public void capture(Capture capture) throws IOException {
+		for (int i = 0; i < NoisyTest.LINES; i++) {
+			capture.out.println("Line " + i + " of output from a test which writes a lot of output to System.out");
+		}
+		capture.writer.flush();
+	}
+}
@@ -0,0 +1,63 @@
+package com.tradeshift.test.remote.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tradeshift.test.remote.Options;
+
+/**
+ * Latency of running a single empty test on a local server, from creating the runner to the test being reported
+ * finished. This is the overhead the remote runner adds to every test.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+
+	private final LocalServers servers = new LocalServers();
+
+	@Setup
+	public void start() throws Exception {
+		servers.start(1, new Options());
+		Benchmarks.check(servers, NoopTest.class);
+	}
+
+	@TearDown
+	public void stop() throws Exception {
+		servers.stop();
+	}
+
+	@Benchmark
+	public Result singleTest() throws Exception {
+		return Benchmarks.run(servers, NoopTest.class);
+	}
+
+	/**
+	 * For comparison, the same test run locally.
+	 */
+	@Benchmark
+	public Result local() throws Exception {
+		RunNotifier notifier = new RunNotifier();
+		Result result = new Result();
+		notifier.addListener(result.createListener());
+		new BlockJUnit4ClassRunner(NoopTest.class).run(notifier);
+		return result;
+	}
+}
@@ -0,0 +1,63 @@
+package com.tradeshift.test.remote.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tradeshift.test.remote.Options;
+
+/**
+ * Tests per second when a class of trivial tests is spread over several local servers, each running a number of
+ * tests at the same time.
+ *
+ * Every parameter combination runs in a JVM of its own, as the client keeps its endpoints for the life of the JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThroughputBenchmark {
+
+	@Param({ "1", "2", "4", "8" })
+	public int endpoints;
+
+	@Param({ "1", "4" })
+	public int concurrency;
+
+	private final LocalServers servers = new LocalServers();
+
+	@Setup
+	public void start() throws Exception {
+		System.setProperty("junit.remote.concurrency", Integer.toString(concurrency));
+		Options opts = new Options();
+		opts.setWorkers(concurrency);
+		servers.start(endpoints, opts);
+		Benchmarks.check(servers, ManyTests.class);
+	}
+
+	@TearDown
+	public void stop() throws Exception {
+		servers.stop();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ManyTests.COUNT)
+	public Result manyTests() throws Exception {
+		return Benchmarks.run(servers, ManyTests.class);
+	}
+}
@@ -7,6 +7,54 @@ public class Options {
 	@Option(name="-p", usage="Port to listen on")
 	private int port = 4578;
 
+	@Option(name="-flushInterval", usage="Milliseconds between sending buffered test output to the client")
+	private long flushInterval = 200;
+
+	@Option(name="-maxOutput", usage="Maximum number of output bytes sent for a single request, 0 for no limit")
+	private long maxOutput = 0;
+
+	@Option(name="-workers", usage="Number of tests to run at the same time")
+	private int workers = Runtime.getRuntime().availableProcessors() * 2;
+
+	@Option(name="-queue", usage="Number of requests which can wait for a worker before new requests are rejected")
+	private int queue = 100;
+
+	@Option(name="-runnerCache", usage="Number of test classes and runner constructors to keep resolved between requests")
+	private int runnerCache = 256;
+
+	@Option(name="-preload", usage="Comma separated test classes, or packages ending with .*, to load before the server is ready")
+	private String preload;
+
+	@Option(name="-warmupTest", usage="Test class, or class#method, to run before the server is ready")
+	private String warmupTest;
+
+	@Option(name="-resultCache", usage="Number of passed test runs to keep and replay while the tests and the classes they use are unchanged, 0 to turn this off")
+	private int resultCache = 0;
+
+	@Option(name="-resultCacheTtl", usage="Seconds to keep a test run in the result cache")
+	private long resultCacheTtl = 3600;
+
+	@Option(name="-watch", usage="Comma separated class directories, such as target/test-classes, to load test classes from and reload them from when they change")
+	private String watch;
+
+	@Option(name="-watchInterval", usage="Milliseconds between checking the watched directories for changes")
+	private long watchInterval = 1000;
+
+	@Option(name="-testTimeout", usage="Milliseconds a test may run before it is failed and interrupted, 0 for no limit")
+	private long testTimeout = 0;
+
+	@Option(name="-forks", usage="Number of worker JVMs to start and send tests to, each running one test at a time, 0 to run tests in this JVM")
+	private int forks = 0;
+
+	@Option(name="-forkJvmArgs", usage="Space separated JVM arguments for the worker JVMs")
+	private String forkJvmArgs;
+
+	@Option(name="-recycleAfter", usage="Number of test requests after which a worker JVM is replaced, 0 to keep it")
+	private int recycleAfter = 0;
+
+	@Option(name="-recycleHeap", usage="Percentage of the maximum heap retained after garbage collection at which a worker JVM is replaced, 0 to keep it")
+	private int recycleHeap = 0;
+
 	public int getPort() {
 		return port;
 	}
@@ -15,5 +63,133 @@ public class Options {
 		this.port = port;
 	}
 
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	public long getMaxOutput() {
+		return maxOutput;
+	}
+
+	public void setMaxOutput(long maxOutput) {
+		this.maxOutput = maxOutput;
+	}
+
+	public int getWorkers() {
+		return workers;
+	}
+
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+
+	public int getQueue() {
+		return queue;
+	}
+
+	public void setQueue(int queue) {
+		this.queue = queue;
+	}
+
+	public int getRunnerCache() {
+		return runnerCache;
+	}
+
+	public void setRunnerCache(int runnerCache) {
+		this.runnerCache = runnerCache;
+	}
+
+	public String getPreload() {
+		return preload;
+	}
+
+	public void setPreload(String preload) {
+		this.preload = preload;
+	}
+
+	public String getWarmupTest() {
+		return warmupTest;
+	}
+
+	public void setWarmupTest(String warmupTest) {
+		this.warmupTest = warmupTest;
+	}
+
+	public int getResultCache() {
+		return resultCache;
+	}
+
+	public void setResultCache(int resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	public long getResultCacheTtl() {
+		return resultCacheTtl;
+	}
+
+	public void setResultCacheTtl(long resultCacheTtl) {
+		this.resultCacheTtl = resultCacheTtl;
+	}
+
+	public String getWatch() {
+		return watch;
+	}
+
+	public void setWatch(String watch) {
+		this.watch = watch;
+	}
+
+	public long getWatchInterval() {
+		return watchInterval;
+	}
+
+	public void setWatchInterval(long watchInterval) {
+		this.watchInterval = watchInterval;
+	}
+
+	public long getTestTimeout() {
+		return testTimeout;
+	}
+
+	public void setTestTimeout(long testTimeout) {
+		this.testTimeout = testTimeout;
+	}
+
+	public int getForks() {
+		return forks;
+	}
+
+	public void setForks(int forks) {
+		this.forks = forks;
+	}
+
+	public String getForkJvmArgs() {
+		return forkJvmArgs;
+	}
+
+	public void setForkJvmArgs(String forkJvmArgs) {
+		this.forkJvmArgs = forkJvmArgs;
+	}
+
+	public int getRecycleAfter() {
+		return recycleAfter;
+	}
+
+	public void setRecycleAfter(int recycleAfter) {
+		this.recycleAfter = recycleAfter;
+	}
+
+	public int getRecycleHeap() {
+		return recycleHeap;
+	}
+
+	public void setRecycleHeap(int recycleHeap) {
+		this.recycleHeap = recycleHeap;
+	}
+
 	
 }
@@ -33,5 +33,17 @@ public @interface Remote {
      * The remote runner class. Can be any runner, as long as it's on classpath. For example, it should be the SpringJUnit4ClassRunner
      */
     Class<? extends Runner> runnerClass() default BlockJUnit4ClassRunner.class;
+
+    /**
+     * Send all selected test methods of the class in a single request, so the remote runner and any class level setup
+     * is only created once. Can also be enabled for all classes using the junit.remote.batch system property.
+     */
+    boolean batch() default false;
+
+    /**
+     * Milliseconds each test of the class may run on the server before it is failed and interrupted. 0 means the
+     * junit.remote.timeout system property if set, and otherwise the -testTimeout of the server.
+     */
+    long timeout() default 0;
     
 }
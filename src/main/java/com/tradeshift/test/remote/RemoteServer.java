@@ -1,30 +1,15 @@
 package com.tradeshift.test.remote;
 
-import java.io.IOException;
-import java.io.OutputStream;
 import java.io.PrintStream;
 
-import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
-
-import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.server.handler.AbstractHandler;
-import org.junit.runner.Description;
-import org.junit.runner.Runner;
-import org.junit.runner.manipulation.Filter;
-import org.junit.runner.manipulation.NoTestsRemainException;
-import org.junit.runner.notification.Failure;
-import org.junit.runner.notification.RunListener;
-import org.junit.runner.notification.RunNotifier;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
-import com.tradeshift.test.remote.internal.LineBreakingStream;
+import com.tradeshift.test.remote.internal.DispatchThreadPool;
 import com.tradeshift.test.remote.internal.RedirectingStream;
-import com.tradeshift.test.remote.internal.Utils;
+import com.tradeshift.test.remote.internal.Supervisor;
+import com.tradeshift.test.remote.internal.TestHandler;
 
 public class RemoteServer {
 
@@ -37,7 +22,7 @@ public class RemoteServer {
         err = new RedirectingStream(System.err);
         System.setErr(new PrintStream(err));
         
-		Options opts = new Options();
+		final Options opts = new Options();
 		CmdLineParser parser = new CmdLineParser(opts);
 		try {
 			parser.parseArgument(args);
@@ -48,96 +33,35 @@ public class RemoteServer {
 		}
 
         Server server = new Server(opts.getPort());
+        server.setThreadPool(new DispatchThreadPool());
+        if (opts.getForks() > 0) {
+            server.setHandler(new Supervisor(opts));
+            server.setStopAtShutdown(true);
+            server.start();
+        } else {
+            final TestHandler handler = new TestHandler(opts, out, err);
+            server.setHandler(handler);
 
-        
-        server.setHandler(new AbstractHandler() {
-            @Override
-            public void handle(String target, Request baseRequest, final HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
-                try {
-                    final Class<?> testClass = getTestClass(request);
-
-                    String method = request.getMethod();
-                    response.setBufferSize(512);
-                    final ServletOutputStream pw = response.getOutputStream();
-                    if ("POST".equalsIgnoreCase(method)) {
-                        response.setStatus(200);
-                        response.flushBuffer();
-                        
-                        final Runner runner = Utils.createRunner(request.getParameter("runner"), testClass);
-                        if (request.getParameter("method") != null) {
-                            try {
-                                Utils.filter(runner, Filter.matchMethodDescription(Description.createTestDescription(testClass, request.getParameter("method"))));
-                            } catch (NoTestsRemainException e) {
-                                pw.println("RERRORNo tests remaining");
-                                return;
-                            }
-                        }
-                        try {
-                            TestListener listener = new TestListener();
-                            final RunNotifier notifier = new RunNotifier();
-                            notifier.addListener(listener);
-                            withStream(pw, new Task() {
-                                @Override
-                                public void run() {
-                                    runner.run(notifier);
-                                }
-                            });
-                            pw.println(listener.getResult());
-                        } catch (Exception e1) {
-                            pw.println("RERROR" + e1);
-                        }
+            server.start();
+            handler.getMetrics().register(getLocalPort(server));
+            if (!handler.isReady()) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handler.warmUp(opts);
                     }
-
-                } catch (ClassNotFoundException e) {
-                    response.sendError(500, e.getMessage());
-                } finally {
-                    baseRequest.setHandled(true);
-                }
-                
+                }, "warm-up").start();
             }
+        }
 
-        });
-        
-        server.start();
-        
-        System.out.println("Server running at http://localhost:" + opts.getPort());
+        System.out.println("Server running at http://localhost:" + getLocalPort(server));
         server.join();
     }
-    
-    private static void withStream(final OutputStream os, Task task)  throws Exception{
-        try {
-            out.setRedirector(new LineBreakingStream('O', os));
-            err.setRedirector(new LineBreakingStream('E', os));
-            task.run();
-        } finally {
-            out.setRedirector(null);
-            err.setRedirector(null);
-        }
-        
-    }
-    
-    private static Class<?> getTestClass(HttpServletRequest request) throws ClassNotFoundException {
-        String testClassName = request.getPathInfo().substring(request.getPathInfo().lastIndexOf('/') + 1);
-        Class<?> testClass = Class.forName(testClassName);
-        return testClass;
-    }
-    
-    
-    private static class TestListener extends RunListener {
-        
-        private String result = "RSUCCESS";
-        
-        public String getResult() {
-            return result;
-        }
-        
-        @Override
-        public void testFailure(Failure failure) throws Exception {
-            result = "RERROR" + failure.getTrace();
-        }
-    }
-    
-    private interface Task {
-        public void run() throws Exception;
+
+    /**
+     * The port the server listens on, which is chosen by the system when started with -p 0.
+     */
+    private static int getLocalPort(Server server) {
+        return server.getConnectors()[0].getLocalPort();
     }
 }
@@ -0,0 +1,102 @@
+package com.tradeshift.test.remote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.runner.Runner;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.junit.runners.model.RunnerScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tradeshift.test.remote.internal.RecordingListener;
+
+/**
+ * A {@link Suite} running its classes at the same time, so the remote servers are kept busy with tests from all of
+ * them instead of waiting for the last tests of one class before the next class starts.
+ *
+ * Use it like a normal suite:
+ *
+ * <pre>
+ * &#064;RunWith(RemoteSuite.class)
+ * &#064;SuiteClasses({ FirstTest.class, SecondTest.class })
+ * public class AllTests {
+ * }
+ * </pre>
+ *
+ * The results of each class are held back until the class is done, and then reported in one piece, so results of
+ * different classes are never mixed up. The number of classes running at once is set with the
+ * junit.remote.suite.threads system property, 16 by default.
+ */
+public class RemoteSuite extends Suite {
+
+    private static final Logger log = LoggerFactory.getLogger(RemoteSuite.class);
+
+    private static final int THREADS = Integer.getInteger("junit.remote.suite.threads", 16);
+
+    private final Object reportLock = new Object();
+
+    public RemoteSuite(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+        setScheduler(new ConcurrentScheduler());
+    }
+
+    @Override
+    protected void runChild(Runner runner, RunNotifier notifier) {
+        RecordingListener recorder = new RecordingListener();
+        RunNotifier buffered = new RunNotifier();
+        buffered.addListener(recorder);
+        try {
+            super.runChild(runner, buffered);
+        } finally {
+            synchronized (reportLock) {
+                recorder.replay(notifier);
+            }
+        }
+    }
+
+    private static class ConcurrentScheduler implements RunnerScheduler {
+        private final List<Future<?>> futures = new ArrayList<Future<?>>();
+        private final ExecutorService executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "remote-suite-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        @Override
+        public void schedule(Runnable childStatement) {
+            futures.add(executor.submit(childStatement));
+        }
+
+        @Override
+        public void finished() {
+            try {
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        log.error("Test class failed", e.getCause());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+}
@@ -1,8 +1,7 @@
 package com.tradeshift.test.remote;
 
-import java.io.IOException;
-import java.net.Socket;
-import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.runner.Description;
 import org.junit.runner.Runner;
@@ -17,7 +16,9 @@ import org.junit.runners.model.InitializationError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.tradeshift.test.remote.internal.EndpointHealth;
 import com.tradeshift.test.remote.internal.InternalRemoteRunner;
+import com.tradeshift.test.remote.internal.ShardFilter;
 import com.tradeshift.test.remote.internal.Utils;
 
 public class RemoteTestRunner extends Runner implements Filterable, Sortable {
@@ -25,52 +26,71 @@ public class RemoteTestRunner extends Runner implements Filterable, Sortable {
     private static final Logger log = LoggerFactory.getLogger(RemoteTestRunner.class);
 
     private Runner delegate;
+    private Description description;
 
     public RemoteTestRunner(Class<?> clazz) throws InitializationError {
         Remote remote = Utils.findAnnotation(clazz, Remote.class);
         String endpoint;
         Class<? extends Runner> remoteRunnerClass;
+        boolean batch = Boolean.getBoolean("junit.remote.batch");
+        long timeout = Long.getLong("junit.remote.timeout", 0);
         if (remote != null) {
             endpoint = remote.endpoint();
             remoteRunnerClass = remote.runnerClass();
+            batch |= remote.batch();
+            if (remote.timeout() > 0) {
+                timeout = remote.timeout();
+            }
         } else {
             endpoint = "http://localhost:4578/";
             remoteRunnerClass = BlockJUnit4ClassRunner.class;
         }
         log.debug("Trying remote server {} with runner {}", endpoint, remoteRunnerClass.getName());
         if (isAnyRemoteUp(endpoint)) {
-            delegate = new InternalRemoteRunner(clazz, endpoint, remoteRunnerClass);
+            delegate = new InternalRemoteRunner(clazz, endpoint, remoteRunnerClass, batch, timeout);
         } else {
         	delegate = Utils.createRunner(remoteRunnerClass, clazz);
         }
+        ShardFilter shard = ShardFilter.get();
+        if (shard != null) {
+            try {
+                Utils.filter(delegate, shard);
+            } catch (NoTestsRemainException e) {
+                log.debug("No tests of {} in {}", clazz.getName(), shard.describe());
+                description = Description.createSuiteDescription(clazz);
+            }
+        }
     }
     
+    /**
+     * Ask the readiness endpoint of the servers whether any of them is up. A server which is still warming up counts
+     * as up, as it will ask for the tests to be sent again once it is ready. Older servers without the endpoint answer
+     * with an error, which also means they are up. Servers are probed in parallel, and the answers are shared by all
+     * test classes for a while, see {@link EndpointHealth}.
+     */
     private boolean isAnyRemoteUp(String eps) {
+    	List<String> urls = new ArrayList<String>();
     	for (String ep : eps.split(",")) {
-    		URI uri = URI.create(ep.trim());
-    		
-    		try {
-    			Socket s = new Socket(uri.getHost(), uri.getPort());
-    			s.close();
-    			
-    			return true;
-    		} catch (IOException e) {
+    		if (ep.trim().length() > 0) {
+    			urls.add(ep.trim());
     		}
-		}
-
-    	return false;
+    	}
+    	return EndpointHealth.get().isAnyUp(urls);
     }
-    
-    
 
     @Override
     public Description getDescription() {
-        return delegate.getDescription();
+        return description != null ? description : delegate.getDescription();
     }
 
+    /**
+     * Run the tests, unless none of them are in the shard of this JVM.
+     */
     @Override
     public void run(RunNotifier notifier) {
-        delegate.run(notifier);
+        if (description == null) {
+            delegate.run(notifier);
+        }
     }
     
     @Override
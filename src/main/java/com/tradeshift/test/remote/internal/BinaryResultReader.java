@@ -0,0 +1,135 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+
+import junit.framework.AssertionFailedError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the binary protocol written by {@link BinaryResultWriter}. Frames are read into a single buffer which is
+ * reused for the whole response, and output is passed on straight from that buffer.
+ */
+public class BinaryResultReader implements ResultReader {
+
+	private static final Logger log = LoggerFactory.getLogger(BinaryResultReader.class);
+
+	private byte[] buffer = new byte[8192];
+	private int pos;
+
+	@Override
+	public void read(InputStream in, ResultHandler handler) throws Throwable {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in, 8192));
+		while (true) {
+			int type = data.read();
+			if (type == -1) {
+				throw new EOFException("Remote server closed the connection before the run completed");
+			}
+			int length = data.readInt();
+			if (length > buffer.length) {
+				buffer = new byte[Math.max(length, buffer.length * 2)];
+			}
+			data.readFully(buffer, 0, length);
+			pos = 0;
+
+			switch (type) {
+			case Protocol.HELLO:
+				int version = readInt();
+				if (version != Protocol.BINARY) {
+					throw new IOException("Unsupported protocol version " + version);
+				}
+				break;
+			case Protocol.TEST_STARTED:
+				handler.testStarted(readString());
+				break;
+			case Protocol.TEST_FINISHED:
+				handler.testFinished(readString());
+				break;
+			case Protocol.TEST_FAILURE:
+				handler.testFailure(readString(), readThrowable());
+				break;
+			case Protocol.TEST_ASSUMPTION_FAILURE:
+				handler.testAssumptionFailure(readString(), readThrowable());
+				break;
+			case Protocol.TEST_IGNORED:
+				handler.testIgnored(readString());
+				break;
+			case Protocol.TEST_PROFILE:
+				handler.testProfile(readString(), new TestProfile(readLong(), readLong(), readLong(), readLong(),
+						pos < length && buffer[pos] != 0));
+				break;
+			case Protocol.STDOUT:
+				handler.output(false, buffer, 0, length);
+				break;
+			case Protocol.STDERR:
+				handler.output(true, buffer, 0, length);
+				break;
+			case Protocol.TIMING:
+				handler.timing(readLong(), readLong());
+				break;
+			case Protocol.DONE:
+				return;
+			case Protocol.ERROR:
+				throw new AssertionFailedError(readString());
+			default:
+				log.debug("Skipping unknown frame type {}", type);
+			}
+		}
+	}
+
+	private int readInt() {
+		int i = ((buffer[pos] & 0xff) << 24) | ((buffer[pos + 1] & 0xff) << 16) | ((buffer[pos + 2] & 0xff) << 8) | (buffer[pos + 3] & 0xff);
+		pos += 4;
+		return i;
+	}
+
+	private long readLong() {
+		return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+	}
+
+	private String readString() throws IOException {
+		int length = readInt();
+		if (length == -1) {
+			return null;
+		}
+		String s = new String(buffer, pos, length, "UTF-8");
+		pos += length;
+		return s;
+	}
+
+	private Throwable readThrowable() throws IOException {
+		Throwable structure = readThrowableStructure();
+		int length = readInt();
+		if (length == -1) {
+			return structure;
+		}
+		try {
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(buffer, pos, length));
+			return (Throwable) ois.readObject();
+		} catch (Exception e) {
+			log.debug("Unable to deserialize remote {}: {}", structure, e);
+			return structure;
+		} finally {
+			pos += length;
+		}
+	}
+
+	private Throwable readThrowableStructure() throws IOException {
+		String className = readString();
+		String message = readString();
+		StackTraceElement[] trace = new StackTraceElement[readInt()];
+		for (int i = 0; i < trace.length; i++) {
+			trace[i] = new StackTraceElement(readString(), readString(), readString(), readInt());
+		}
+		Throwable cause = buffer[pos++] != 0 ? readThrowableStructure() : null;
+		RemoteThrowable t = new RemoteThrowable(className, message, cause);
+		t.setStackTrace(trace);
+		return t;
+	}
+}
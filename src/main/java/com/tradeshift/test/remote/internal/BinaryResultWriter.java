@@ -0,0 +1,180 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+/**
+ * Writes results as frames in the binary protocol, see {@link Protocol}.
+ */
+public class BinaryResultWriter implements ResultWriter {
+
+	private final DataOutputStream out;
+	private final ChunkStream stdout = new ChunkStream(Protocol.STDOUT);
+	private final ChunkStream stderr = new ChunkStream(Protocol.STDERR);
+	private final OutputStream limitedOut;
+	private final OutputStream limitedErr;
+
+	private final ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+	private final DataOutputStream payloadOut = new DataOutputStream(payload);
+
+	/**
+	 * @param maxOutput Maximum number of output bytes to send, or 0 for no limit
+	 */
+	public BinaryResultWriter(OutputStream os, long maxOutput) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(os, Protocol.CHUNK_SIZE));
+		LimitedOutputStream.Limit limit = new LimitedOutputStream.Limit(maxOutput);
+		this.limitedOut = new LimitedOutputStream(stdout, limit, this);
+		this.limitedErr = new LimitedOutputStream(stderr, limit, this);
+		payloadOut.writeInt(Protocol.BINARY);
+		frame(Protocol.HELLO);
+	}
+
+	@Override
+	public OutputStream getOut() {
+		return limitedOut;
+	}
+
+	@Override
+	public OutputStream getErr() {
+		return limitedErr;
+	}
+
+	@Override
+	public synchronized void timing(long queueMillis, long runMillis) throws IOException {
+		payloadOut.writeLong(queueMillis);
+		payloadOut.writeLong(runMillis);
+		frame(Protocol.TIMING);
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		stdout.flushChunk();
+		stderr.flushChunk();
+		out.flush();
+	}
+
+	@Override
+	public synchronized void testStarted(Description description) throws IOException {
+		Protocol.writeString(payloadOut, methodName(description));
+		frame(Protocol.TEST_STARTED);
+	}
+
+	@Override
+	public synchronized void testFinished(Description description) throws IOException {
+		Protocol.writeString(payloadOut, methodName(description));
+		frame(Protocol.TEST_FINISHED);
+	}
+
+	@Override
+	public synchronized void testFailure(Failure failure) throws IOException {
+		Protocol.writeString(payloadOut, methodName(failure.getDescription()));
+		Protocol.writeThrowable(payloadOut, failure.getException());
+		frame(Protocol.TEST_FAILURE);
+	}
+
+	@Override
+	public synchronized void testAssumptionFailure(Failure failure) throws IOException {
+		Protocol.writeString(payloadOut, methodName(failure.getDescription()));
+		Protocol.writeThrowable(payloadOut, failure.getException());
+		frame(Protocol.TEST_ASSUMPTION_FAILURE);
+	}
+
+	@Override
+	public synchronized void testIgnored(Description description) throws IOException {
+		Protocol.writeString(payloadOut, methodName(description));
+		frame(Protocol.TEST_IGNORED);
+	}
+
+	@Override
+	public synchronized void testProfile(Description description, TestProfile profile) throws IOException {
+		Protocol.writeString(payloadOut, methodName(description));
+		payloadOut.writeLong(profile.getWallMillis());
+		payloadOut.writeLong(profile.getCpuMillis());
+		payloadOut.writeLong(profile.getAllocatedBytes());
+		payloadOut.writeLong(profile.getGcMillis());
+		payloadOut.writeBoolean(profile.isPartial());
+		frame(Protocol.TEST_PROFILE);
+	}
+
+	@Override
+	public synchronized void done() throws IOException {
+		frame(Protocol.DONE);
+	}
+
+	@Override
+	public synchronized void error(String message) throws IOException {
+		Protocol.writeString(payloadOut, message);
+		frame(Protocol.ERROR);
+	}
+
+	private static String methodName(Description description) {
+		String methodName = description.getMethodName();
+		return methodName == null ? "" : methodName;
+	}
+
+	/**
+	 * Send the current payload as a frame, after any pending output.
+	 */
+	private void frame(int type) throws IOException {
+		stdout.flushChunk();
+		stderr.flushChunk();
+		writeFrame(type, payload.toByteArray(), 0, payload.size());
+		payload.reset();
+		out.flush();
+	}
+
+	private void writeFrame(int type, byte[] b, int off, int len) throws IOException {
+		out.writeByte(type);
+		out.writeInt(len);
+		out.write(b, off, len);
+	}
+
+	/**
+	 * Collects output into chunks, which are sent when the buffer is full or the writer is flushed. Only used with the
+	 * writer lock held.
+	 */
+	private class ChunkStream extends OutputStream {
+		private final int type;
+		private final byte[] buffer = new byte[Protocol.CHUNK_SIZE];
+		private int count;
+
+		ChunkStream(int type) {
+			this.type = type;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			buffer[count++] = (byte) b;
+			if (count == buffer.length) {
+				flushChunk();
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int n = Math.min(len, buffer.length - count);
+				System.arraycopy(b, off, buffer, count, n);
+				count += n;
+				off += n;
+				len -= n;
+				if (count == buffer.length) {
+					flushChunk();
+				}
+			}
+		}
+
+		void flushChunk() throws IOException {
+			if (count > 0) {
+				writeFrame(type, buffer, 0, count);
+				count = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A digest of the class files of a test class and the classes it depends on, which changes when any of them is
+ * recompiled.
+ *
+ * The classes included are the test class, its superclasses, and every class named in the constant pool of any of
+ * them, which covers nested classes and the classes the test calls directly. Classes of the JDK and JUnit are left
+ * out, as they don't change while the server is running. Classes used only through other classes are not included.
+ */
+public class ClassFingerprint {
+
+	private static final String[] EXCLUDED = { "java/", "javax/", "sun/", "com/sun/", "jdk/", "org/junit/", "junit/" };
+
+	private static final int UTF8 = 1;
+	private static final int INTEGER = 3;
+	private static final int FLOAT = 4;
+	private static final int LONG = 5;
+	private static final int DOUBLE = 6;
+	private static final int CLASS = 7;
+	private static final int STRING = 8;
+	private static final int FIELD_REF = 9;
+	private static final int METHOD_REF = 10;
+	private static final int INTERFACE_METHOD_REF = 11;
+	private static final int NAME_AND_TYPE = 12;
+	private static final int METHOD_HANDLE = 15;
+	private static final int METHOD_TYPE = 16;
+	private static final int DYNAMIC = 17;
+	private static final int INVOKE_DYNAMIC = 18;
+	private static final int MODULE = 19;
+	private static final int PACKAGE = 20;
+
+	/**
+	 * @return the SHA-1 of the class files as a hex string
+	 */
+	public static String of(Class<?> testClass) throws IOException {
+		ClassLoader loader = testClass.getClassLoader();
+		if (loader == null) {
+			loader = ClassLoader.getSystemClassLoader();
+		}
+		Set<String> names = new TreeSet<String>();
+		for (Class<?> c = testClass; c != null && !isExcluded(internalName(c)); c = c.getSuperclass()) {
+			byte[] bytes = read(loader, internalName(c));
+			if (bytes == null) {
+				throw new IOException("Unable to read the class file of " + c.getName());
+			}
+			names.add(internalName(c));
+			names.addAll(getReferencedClasses(bytes));
+		}
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for (String name : names) {
+			if (isExcluded(name)) {
+				continue;
+			}
+			digest.update(name.getBytes("UTF-8"));
+			byte[] bytes = read(loader, name);
+			if (bytes != null) {
+				digest.update(bytes);
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The classes named in the constant pool of a class file, in internal form such as java/lang/String.
+	 */
+	static Set<String> getReferencedClasses(byte[] classFile) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+		if (in.readInt() != 0xCAFEBABE) {
+			throw new IOException("Not a class file");
+		}
+		in.readUnsignedShort();
+		in.readUnsignedShort();
+		int count = in.readUnsignedShort();
+		String[] utf8 = new String[count];
+		int[] classes = new int[count];
+		int classCount = 0;
+		for (int i = 1; i < count; i++) {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+			case UTF8:
+				utf8[i] = in.readUTF();
+				break;
+			case CLASS:
+				classes[classCount++] = in.readUnsignedShort();
+				break;
+			case STRING:
+			case METHOD_TYPE:
+			case MODULE:
+			case PACKAGE:
+				in.readUnsignedShort();
+				break;
+			case METHOD_HANDLE:
+				in.readUnsignedByte();
+				in.readUnsignedShort();
+				break;
+			case LONG:
+			case DOUBLE:
+				in.readLong();
+				i++;
+				break;
+			case INTEGER:
+			case FLOAT:
+			case FIELD_REF:
+			case METHOD_REF:
+			case INTERFACE_METHOD_REF:
+			case NAME_AND_TYPE:
+			case DYNAMIC:
+			case INVOKE_DYNAMIC:
+				in.readInt();
+				break;
+			default:
+				throw new IOException("Unknown constant pool tag " + tag);
+			}
+		}
+		Set<String> names = new TreeSet<String>();
+		for (int i = 0; i < classCount; i++) {
+			String name = utf8[classes[i]];
+			if (name == null) {
+				continue;
+			}
+			// Array classes are named by their descriptor
+			int dims = 0;
+			while (dims < name.length() && name.charAt(dims) == '[') {
+				dims++;
+			}
+			if (dims > 0) {
+				if (name.charAt(dims) != 'L') {
+					continue;
+				}
+				name = name.substring(dims + 1, name.length() - 1);
+			}
+			names.add(name);
+		}
+		return names;
+	}
+
+	private static boolean isExcluded(String name) {
+		for (String prefix : EXCLUDED) {
+			if (name.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String internalName(Class<?> c) {
+		return c.getName().replace('.', '/');
+	}
+
+	private static byte[] read(ClassLoader loader, String name) throws IOException {
+		InputStream in = loader.getResourceAsStream(name + ".class");
+		if (in == null) {
+			return null;
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, n);
+			}
+			return bytes.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks class directories for changed, added and removed files at a fixed interval, and calls a listener once they
+ * have changed. Changes are only reported when two checks in a row find the same files, so a compiler still writing
+ * classes doesn't cause a reload for every class.
+ *
+ * Polling is used rather than file system events, as it works the same on every platform and on network file
+ * systems, and the cost of listing a class directory once a second is small.
+ */
+public class ClassWatcher {
+
+	private static final Logger log = LoggerFactory.getLogger(ClassWatcher.class);
+
+	private final File[] dirs;
+	private final long interval;
+	private final Runnable listener;
+	private Map<String, Long> loaded;
+	private Map<String, Long> previous;
+
+	public ClassWatcher(File[] dirs, long interval, Runnable listener) {
+		this.dirs = dirs.clone();
+		this.interval = interval;
+		this.listener = listener;
+		this.loaded = scan();
+		this.previous = loaded;
+	}
+
+	public void start() {
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!Thread.currentThread().isInterrupted()) {
+					try {
+						Thread.sleep(interval);
+						check();
+					} catch (InterruptedException e) {
+						return;
+					} catch (RuntimeException e) {
+						log.warn("Unable to check for changed classes", e);
+					}
+				}
+			}
+		}, "class-watcher");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Call the listener if the files have changed since it was last called, and not since the previous check.
+	 */
+	void check() {
+		Map<String, Long> current = scan();
+		if (current.equals(previous) && !current.equals(loaded)) {
+			loaded = current;
+			listener.run();
+		}
+		previous = current;
+	}
+
+	/**
+	 * The last modified time of every file in the directories, by path.
+	 */
+	private Map<String, Long> scan() {
+		Map<String, Long> files = new HashMap<String, Long>();
+		for (File dir : dirs) {
+			scan(dir, files);
+		}
+		return files;
+	}
+
+	private static void scan(File dir, Map<String, Long> files) {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				scan(child, files);
+			} else {
+				files.put(child.getPath(), child.lastModified() * 31 + child.length());
+			}
+		}
+	}
+}
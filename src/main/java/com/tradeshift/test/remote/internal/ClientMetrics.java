@@ -0,0 +1,164 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Where the time of remote tests went, as seen by the client, to tell a slow network from a slow server or slow
+ * tests. Every request is split into these phases:
+ *
+ * <ul>
+ * <li>connect: sending the request until the server has accepted it</li>
+ * <li>queue: waiting on the server for a worker</li>
+ * <li>run: running the tests on the server</li>
+ * <li>read: receiving and parsing the results after the server accepted the request, which overlaps queue and run</li>
+ * <li>overhead: everything but queue and run, that is the network and the protocol</li>
+ * </ul>
+ *
+ * Queue and run are reported by the server, so they are only known for servers using the binary protocol. The
+ * summary is logged when the JVM exits and written to target/junit-remote-metrics.txt, unless the
+ * junit.remote.metrics system property gives another file, or is empty to turn this off.
+ */
+public class ClientMetrics {
+
+	private static final Logger log = LoggerFactory.getLogger(ClientMetrics.class);
+
+	private static final ClientMetrics INSTANCE = new ClientMetrics(System.getProperty("junit.remote.metrics",
+			"target/junit-remote-metrics.txt"));
+
+	private final File file;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong hedged = new AtomicLong();
+	private final Histogram connectTime = new Histogram();
+	private final Histogram queueTime = new Histogram();
+	private final Histogram runTime = new Histogram();
+	private final Histogram readTime = new Histogram();
+	private final Histogram overheadTime = new Histogram();
+	private final Histogram totalTime = new Histogram();
+	private volatile EndpointPool endpoints;
+
+	public ClientMetrics(String path) {
+		this.file = path == null || path.trim().length() == 0 ? null : new File(path);
+		if (file == null) {
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				report();
+			}
+		});
+	}
+
+	public static ClientMetrics get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * The endpoints to include in the summary.
+	 */
+	public void setEndpoints(EndpointPool endpoints) {
+		this.endpoints = endpoints;
+	}
+
+	/**
+	 * Record a request whose results were read completely.
+	 *
+	 * @param connectMillis Until the server accepted the request
+	 * @param queueMillis Waiting for a worker on the server, or -1 if not known
+	 * @param runMillis Running the tests on the server, or -1 if not known
+	 * @param totalMillis The whole request
+	 */
+	public void completed(long connectMillis, long queueMillis, long runMillis, long totalMillis) {
+		requests.incrementAndGet();
+		connectTime.record(connectMillis);
+		readTime.record(totalMillis - connectMillis);
+		totalTime.record(totalMillis);
+		if (queueMillis >= 0 && runMillis >= 0) {
+			queueTime.record(queueMillis);
+			runTime.record(runMillis);
+			overheadTime.record(Math.max(0, totalMillis - queueMillis - runMillis));
+		}
+	}
+
+	/**
+	 * Record a request which failed because of the endpoint or the network.
+	 */
+	public void failed() {
+		failed.incrementAndGet();
+	}
+
+	/**
+	 * Record a test being sent again after failing.
+	 */
+	public void retried() {
+		retried.incrementAndGet();
+	}
+
+	/**
+	 * Record a test being sent to a second endpoint because the first was slow.
+	 */
+	public void hedged() {
+		hedged.incrementAndGet();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("requests ").append(requests.get()).append('\n');
+		sb.append("failed ").append(failed.get()).append('\n');
+		sb.append("retried ").append(retried.get()).append('\n');
+		sb.append("hedged ").append(hedged.get()).append('\n');
+		sb.append("time.connect ").append(connectTime).append('\n');
+		sb.append("time.queue ").append(queueTime).append('\n');
+		sb.append("time.run ").append(runTime).append('\n');
+		sb.append("time.read ").append(readTime).append('\n');
+		sb.append("time.overhead ").append(overheadTime).append('\n');
+		sb.append("time.total ").append(totalTime).append('\n');
+		EndpointPool pool = endpoints;
+		if (pool != null) {
+			List<Endpoint> list = pool.getEndpoints();
+			for (Endpoint endpoint : list) {
+				sb.append("endpoint ").append(endpoint).append(" limit=").append(endpoint.getLimit())
+						.append(" inFlight=").append(endpoint.getInFlight()).append(" completed=")
+						.append(endpoint.getCompleted()).append(" errors=").append(endpoint.getErrors())
+						.append(" rejected=").append(endpoint.getRejected()).append(" retried=")
+						.append(endpoint.getRetried()).append(" latency: ").append(endpoint.getLatencies()).append('\n');
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Log the summary and write it to the file, if any tests were sent.
+	 */
+	synchronized void report() {
+		if (requests.get() == 0 && failed.get() == 0) {
+			return;
+		}
+		String summary = toString();
+		log.info("Remote test metrics:\n{}", summary);
+		try {
+			if (file.getAbsoluteFile().getParentFile() != null) {
+				file.getAbsoluteFile().getParentFile().mkdirs();
+			}
+			OutputStream out = new FileOutputStream(file);
+			try {
+				out.write(summary.getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			log.warn("Unable to save metrics to {}: {}", file, e.toString());
+		}
+	}
+}
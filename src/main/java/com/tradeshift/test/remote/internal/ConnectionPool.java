@@ -0,0 +1,260 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps HTTP/1.1 connections to remote servers open between requests.
+ *
+ * Each endpoint (host and port) has a limited number of connections, configured with the
+ * junit.remote.pool.maxConnections system property. Idle connections are closed after junit.remote.pool.idleTimeout
+ * milliseconds, and are checked for being closed by the server before they are reused. Probes and cancels are sent
+ * with {@link #executeUnlimited}, so they don't wait for a slot behind running tests. Only plain HTTP is spoken, so
+ * https URIs are rejected.
+ */
+public class ConnectionPool {
+
+	private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+	private static final ConnectionPool INSTANCE = new ConnectionPool(
+			Integer.getInteger("junit.remote.pool.maxConnections", 32),
+			Long.getLong("junit.remote.pool.idleTimeout", 30000),
+			Integer.getInteger("junit.remote.connectTimeout", 10000));
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				INSTANCE.close();
+				log.info("Remote connections: {}", INSTANCE);
+			}
+		});
+	}
+
+	private final int maxConnections;
+	private final long idleTimeout;
+	private final int connectTimeout;
+	private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+	private final AtomicLong opened = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+	private final AtomicLong evicted = new AtomicLong();
+
+	public ConnectionPool(int maxConnections, long idleTimeout, int connectTimeout) {
+		this.maxConnections = maxConnections;
+		this.idleTimeout = idleTimeout;
+		this.connectTimeout = connectTimeout;
+	}
+
+	public static ConnectionPool get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Send a request to the server. If a reused connection turns out to be closed before any response has been read,
+	 * the request is sent again on a new connection.
+	 *
+	 * The connection is returned to the pool when the response body has been read to the end and closed.
+	 */
+	public HttpResponse execute(URI uri, String method, String contentType, byte[] body, int readTimeout)
+			throws IOException {
+		return execute(uri, method, contentType, body, connectTimeout, readTimeout);
+	}
+
+	/**
+	 * Send a request with a connect timeout other than the default for the pool, used if a new connection has to be
+	 * opened.
+	 */
+	public HttpResponse execute(URI uri, String method, String contentType, byte[] body, int connectTimeout, int readTimeout)
+			throws IOException {
+		return execute(uri, method, contentType, body, connectTimeout, readTimeout, true);
+	}
+
+	/**
+	 * Send a short request which must not wait behind the tests running on the server, such as a probe or a cancel.
+	 * An idle connection is used if the endpoint has a free slot, otherwise a connection of its own is opened beyond
+	 * the limit of the endpoint, and closed after the response.
+	 */
+	public HttpResponse executeUnlimited(URI uri, String method, String contentType, byte[] body, int readTimeout)
+			throws IOException {
+		return execute(uri, method, contentType, body, connectTimeout, readTimeout, false);
+	}
+
+	/**
+	 * Send a short request outside the limit of the endpoint, with a connect timeout other than the default for the
+	 * pool.
+	 */
+	public HttpResponse executeUnlimited(URI uri, String method, String contentType, byte[] body, int connectTimeout,
+			int readTimeout) throws IOException {
+		return execute(uri, method, contentType, body, connectTimeout, readTimeout, false);
+	}
+
+	private HttpResponse execute(URI uri, String method, String contentType, byte[] body, int connectTimeout,
+			int readTimeout, boolean limited) throws IOException {
+		while (true) {
+			PooledConnection connection = acquire(uri, connectTimeout, limited);
+			try {
+				connection.setReadTimeout(readTimeout);
+				return connection.execute(method, uri, contentType, body);
+			} catch (IOException e) {
+				connection.discard();
+				if (!connection.isReused() || connection.isResponseStarted()) {
+					throw e;
+				}
+				log.debug("Reused connection to {} failed, retrying on a new connection", uri);
+			}
+		}
+	}
+
+	/**
+	 * The port of an http URI, 80 if it has none.
+	 *
+	 * @throws IllegalArgumentException if the URI isn't http
+	 */
+	static int getPort(URI uri) {
+		if (!"http".equalsIgnoreCase(uri.getScheme())) {
+			throw new IllegalArgumentException("Only http is supported, not " + uri);
+		}
+		return uri.getPort() == -1 ? 80 : uri.getPort();
+	}
+
+	private PooledConnection acquire(URI uri, int connectTimeout, boolean limited) throws IOException {
+		int port = getPort(uri);
+		String key = uri.getHost() + ":" + port;
+		Endpoint endpoint = endpoints.get(key);
+		if (endpoint == null) {
+			endpoints.putIfAbsent(key, new Endpoint(maxConnections));
+			endpoint = endpoints.get(key);
+		}
+		if (!limited && !endpoint.permits.tryAcquire()) {
+			Socket socket = connect(uri.getHost(), port, connectTimeout);
+			return new PooledConnection(this, null, socket);
+		}
+		if (limited) {
+			try {
+				endpoint.permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a connection to " + key);
+			}
+		}
+
+		PooledConnection connection;
+		while ((connection = endpoint.idle.pollFirst()) != null) {
+			if (System.currentTimeMillis() - connection.getLastUsed() > idleTimeout || !connection.isHealthy()) {
+				evicted.incrementAndGet();
+				connection.close();
+			} else {
+				reused.incrementAndGet();
+				connection.reuse();
+				return connection;
+			}
+		}
+
+		try {
+			return new PooledConnection(this, endpoint, connect(uri.getHost(), port, connectTimeout));
+		} catch (IOException e) {
+			endpoint.permits.release();
+			throw e;
+		}
+	}
+
+	private Socket connect(String host, int port, int connectTimeout) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(host, port), connectTimeout);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		opened.incrementAndGet();
+		return socket;
+	}
+
+	/**
+	 * Take back a connection, which is closed if it isn't reusable or was opened beyond the limit of its endpoint, in
+	 * which case the endpoint is null.
+	 */
+	void release(PooledConnection connection, Endpoint endpoint, boolean reusable) {
+		if (endpoint == null) {
+			connection.close();
+			return;
+		}
+		try {
+			if (reusable) {
+				endpoint.idle.offerFirst(connection);
+				evictIdle(endpoint);
+			} else {
+				connection.close();
+			}
+		} finally {
+			endpoint.permits.release();
+		}
+	}
+
+	private void evictIdle(Endpoint endpoint) {
+		long now = System.currentTimeMillis();
+		Iterator<PooledConnection> itr = endpoint.idle.descendingIterator();
+		while (itr.hasNext()) {
+			PooledConnection connection = itr.next();
+			if (now - connection.getLastUsed() <= idleTimeout) {
+				break;
+			}
+			if (endpoint.idle.removeLastOccurrence(connection)) {
+				evicted.incrementAndGet();
+				connection.close();
+			}
+		}
+	}
+
+	/**
+	 * Close all idle connections.
+	 */
+	public void close() {
+		for (Endpoint endpoint : endpoints.values()) {
+			PooledConnection connection;
+			while ((connection = endpoint.idle.pollFirst()) != null) {
+				connection.close();
+			}
+		}
+	}
+
+	public long getOpened() {
+		return opened.get();
+	}
+
+	public long getReused() {
+		return reused.get();
+	}
+
+	public long getEvicted() {
+		return evicted.get();
+	}
+
+	@Override
+	public String toString() {
+		return opened + " opened, " + reused + " reused, " + evicted + " evicted";
+	}
+
+	static class Endpoint {
+		final Semaphore permits;
+		final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+
+		Endpoint(int maxConnections) {
+			this.permits = new Semaphore(maxConnections);
+		}
+	}
+}
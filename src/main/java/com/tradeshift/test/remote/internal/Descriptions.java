@@ -0,0 +1,89 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.runner.Description;
+
+/**
+ * Reads and writes the description tree of a runner, as answered by the server to GET on a test class.
+ *
+ * Every description is written as a line with its depth in the tree and its escaped display name, separated by a tab,
+ * parents before their children. Suites without any tests are left out, so every description without children is a
+ * test. Annotations are not sent.
+ */
+public class Descriptions {
+
+	public static final String CONTENT_TYPE = "text/x-junit-remote-description";
+
+	public static void write(Description description, Writer out) throws IOException {
+		write(description, 0, out);
+		out.flush();
+	}
+
+	private static void write(Description description, int depth, Writer out) throws IOException {
+		if (description.isSuite() && description.testCount() == 0) {
+			return;
+		}
+		out.write(depth + "\t" + Utils.escape(description.getDisplayName()) + "\n");
+		for (Description child : description.getChildren()) {
+			write(child, depth + 1, out);
+		}
+	}
+
+	/**
+	 * Read a description tree.
+	 *
+	 * @return the root description, or null if there is none
+	 */
+	public static Description read(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		List<Description> parents = new ArrayList<Description>();
+		String line;
+		while ((line = reader.readLine()) != null) {
+			int tab = line.indexOf('\t');
+			if (tab < 0) {
+				throw new IOException("Invalid description: " + line);
+			}
+			int depth;
+			try {
+				depth = Integer.parseInt(line.substring(0, tab));
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid description: " + line);
+			}
+			if (depth > parents.size() || (depth == 0) != parents.isEmpty()) {
+				throw new IOException("Invalid description: " + line);
+			}
+			Description description = Description.createSuiteDescription(Utils.unescape(line.substring(tab + 1)));
+			if (depth > 0) {
+				parents.get(depth - 1).addChild(description);
+			}
+			parents.subList(depth, parents.size()).clear();
+			parents.add(description);
+		}
+		return parents.isEmpty() ? null : parents.get(0);
+	}
+
+	/**
+	 * The tests of a description tree, in the order they appear.
+	 */
+	public static List<Description> getTests(Description description) {
+		List<Description> tests = new ArrayList<Description>();
+		addTests(description, tests);
+		return tests;
+	}
+
+	private static void addTests(Description description, List<Description> tests) {
+		if (description.isTest()) {
+			tests.add(description);
+		}
+		for (Description child : description.getChildren()) {
+			addTests(child, tests);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.tradeshift.test.remote.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Jetty's thread pool, able to run tasks once a thread has finished with the connection it was dispatched to.
+ *
+ * When a handler returns, Jetty's thread goes on flushing the response of the connection without any locking. A
+ * suspended request whose response is written by another thread must therefore not be written to before that
+ * thread is done, which is what {@link #afterDispatch(Runnable)} is for.
+ */
+public class DispatchThreadPool extends QueuedThreadPool {
+
+	private static final ThreadLocal<List<Runnable>> AFTER_DISPATCH = new ThreadLocal<List<Runnable>>();
+
+	@Override
+	public boolean dispatch(final Runnable job) {
+		return super.dispatch(new Runnable() {
+			@Override
+			public void run() {
+				List<Runnable> after = new ArrayList<Runnable>();
+				AFTER_DISPATCH.set(after);
+				try {
+					job.run();
+				} finally {
+					AFTER_DISPATCH.remove();
+					for (Runnable task : after) {
+						task.run();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Run a task when the current thread has finished with the connection it is handling, or right away if the thread
+	 * isn't from a DispatchThreadPool.
+	 */
+	public static void afterDispatch(Runnable task) {
+		List<Runnable> after = AFTER_DISPATCH.get();
+		if (after == null) {
+			task.run();
+		} else {
+			after.add(task);
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package com.tradeshift.test.remote.internal;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A remote server the client sends tests to, with lock free statistics used by {@link EndpointSelector}s.
+ */
+public class Endpoint {
+
+	/**
+	 * Weight of the newest sample in the latency average.
+	 */
+	private static final double ALPHA = 0.3;
+
+	/**
+	 * Number of recent latencies kept for percentiles, and the number needed before percentiles are given.
+	 */
+	private static final int SAMPLES = 128;
+	private static final int MIN_SAMPLES = 20;
+
+	private final String url;
+	private final int limit;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong latency = new AtomicLong(Double.doubleToLongBits(-1));
+	private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+	private final AtomicInteger failures = new AtomicInteger();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final Histogram latencies = new Histogram();
+	private volatile long openUntil;
+
+	public Endpoint(String url) {
+		this(url, 1);
+	}
+
+	/**
+	 * @param limit The number of tests the endpoint runs at the same time
+	 */
+	public Endpoint(String url, int limit) {
+		this.url = normalize(url);
+		this.limit = limit;
+	}
+
+	/**
+	 * The url with a slash at the end, as returned by {@link #getUrl()}.
+	 */
+	public static String normalize(String url) {
+		return url.endsWith("/") ? url : url + "/";
+	}
+
+	/**
+	 * The url, always ending with a slash.
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Called when a request is sent to the endpoint.
+	 */
+	public void started() {
+		inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Called when a request to the endpoint has completed.
+	 *
+	 * @param millis How long the request took
+	 */
+	public void finished(long millis) {
+		inFlight.decrementAndGet();
+		long n = completed.getAndIncrement();
+		samples.set((int) (n % SAMPLES), millis);
+		latencies.record(millis);
+		while (true) {
+			long current = latency.get();
+			double average = Double.longBitsToDouble(current);
+			double updated = average < 0 ? millis : ALPHA * millis + (1 - ALPHA) * average;
+			if (latency.compareAndSet(current, Double.doubleToLongBits(updated))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Called when a request to the endpoint did not run, because the endpoint was busy or could not be reached. The
+	 * latency is not updated.
+	 */
+	public void abandoned() {
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Called when a request to the endpoint failed because of the endpoint, not the test. After the given number of
+	 * failures in a row the circuit is opened, and the endpoint is not used for the cool down period. After that one
+	 * more failure opens it again, until a request succeeds.
+	 */
+	public void failed(int threshold, long coolDown) {
+		errors.incrementAndGet();
+		if (failures.incrementAndGet() >= threshold) {
+			openUntil = System.currentTimeMillis() + coolDown;
+		}
+	}
+
+	/**
+	 * Called when the endpoint answered a request with 503, as it had no room for the test.
+	 */
+	public void rejected() {
+		rejected.incrementAndGet();
+	}
+
+	/**
+	 * Called when the endpoint could not be connected to.
+	 */
+	public void unreachable() {
+		errors.incrementAndGet();
+	}
+
+	/**
+	 * Called when a test which failed on the endpoint is sent again.
+	 */
+	public void retried() {
+		retried.incrementAndGet();
+	}
+
+	/**
+	 * Called when a response was read completely, closing the circuit.
+	 */
+	public void succeeded() {
+		failures.set(0);
+		openUntil = 0;
+	}
+
+	/**
+	 * Whether the endpoint has failed too often recently to be used.
+	 */
+	public boolean isOpen() {
+		return openUntil != 0 && System.currentTimeMillis() < openUntil;
+	}
+
+	/**
+	 * A percentile of the latency of recent requests, or -1 if too few requests have completed.
+	 *
+	 * @param percentile Between 0 and 100
+	 */
+	public long getLatencyPercentile(double percentile) {
+		int count = (int) Math.min(completed.get(), SAMPLES);
+		if (count < MIN_SAMPLES) {
+			return -1;
+		}
+		long[] sorted = new long[count];
+		for (int i = 0; i < count; i++) {
+			sorted[i] = samples.get(i);
+		}
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100 * count) - 1;
+		return sorted[Math.max(0, Math.min(count - 1, index))];
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * The number of requests which failed because of the endpoint, including failures to connect.
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public long getRetried() {
+		return retried.get();
+	}
+
+	/**
+	 * The latency of all completed requests, not only the recent ones.
+	 */
+	public Histogram getLatencies() {
+		return latencies;
+	}
+
+	/**
+	 * Exponentially weighted moving average of request latency in milliseconds, or -1 if no requests have completed.
+	 */
+	public double getLatency() {
+		return Double.longBitsToDouble(latency.get());
+	}
+
+	@Override
+	public String toString() {
+		return url;
+	}
+}
@@ -0,0 +1,165 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Knows which remote servers are up, for all runners in the JVM.
+ *
+ * Servers are probed with a GET of their readiness endpoint, using a short connect timeout
+ * (junit.remote.health.connectTimeout, 1000 ms by default). Servers asked about at the same time are probed in
+ * parallel, and the result is kept for junit.remote.health.ttl milliseconds (30000 by default) before the server is
+ * probed again. Requests failing to connect mark a server as down straight away.
+ */
+public class EndpointHealth {
+
+	private static final Logger log = LoggerFactory.getLogger(EndpointHealth.class);
+
+	private static final EndpointHealth INSTANCE = new EndpointHealth(
+			Long.getLong("junit.remote.health.ttl", 30000),
+			Integer.getInteger("junit.remote.health.connectTimeout", 1000));
+
+	private final long ttl;
+	private final int connectTimeout;
+	private final ConcurrentMap<String, Probe> probes = new ConcurrentHashMap<String, Probe>();
+	private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "endpoint-probe-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	public EndpointHealth(long ttl, int connectTimeout) {
+		this.ttl = ttl;
+		this.connectTimeout = connectTimeout;
+	}
+
+	public static EndpointHealth get() {
+		return INSTANCE;
+	}
+
+	public boolean isUp(String url) {
+		return await(status(Endpoint.normalize(url)));
+	}
+
+	public boolean isAnyUp(Collection<String> urls) {
+		for (boolean up : check(urls)) {
+			if (up) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether the servers are up, probing all those without a recent result at the same time.
+	 *
+	 * @return whether each server is up, in the order of the urls
+	 */
+	public List<Boolean> check(Collection<String> urls) {
+		List<Probe> pending = new ArrayList<Probe>(urls.size());
+		for (String url : urls) {
+			pending.add(status(Endpoint.normalize(url)));
+		}
+		List<Boolean> result = new ArrayList<Boolean>(pending.size());
+		for (Probe probe : pending) {
+			result.add(await(probe));
+		}
+		return result;
+	}
+
+	/**
+	 * Record that a request to the server could not connect. It is not used again until it has been probed after
+	 * the ttl.
+	 */
+	public void markDown(String url) {
+		Probe probe = new Probe(null);
+		probe.task.run();
+		probes.put(Endpoint.normalize(url), probe);
+	}
+
+	private Probe status(String url) {
+		while (true) {
+			Probe current = probes.get(url);
+			if (current != null && !current.isExpired()) {
+				return current;
+			}
+			Probe probe = new Probe(url);
+			if (current == null ? probes.putIfAbsent(url, probe) == null : probes.replace(url, current, probe)) {
+				executor.execute(probe.task);
+				return probe;
+			}
+		}
+	}
+
+	private static boolean await(Probe probe) {
+		try {
+			return probe.task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			return false;
+		}
+	}
+
+	private boolean probe(String url) {
+		try {
+			HttpResponse response = ConnectionPool.get().executeUnlimited(URI.create(url + "-/ready"), "GET", null, null,
+					connectTimeout, 10000);
+			response.getBody().close();
+			log.debug("Remote server {} answered {}", url, response.getStatus());
+			return true;
+		} catch (IOException e) {
+			log.debug("Remote server {} is not available: {}", url, e.toString());
+			return false;
+		} catch (IllegalArgumentException e) {
+			log.warn("Remote server {} can't be used: {}", url, e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * A probe of a server, or with a null url one which found it down without probing.
+	 */
+	private class Probe {
+		final FutureTask<Boolean> task;
+		volatile long completed;
+
+		Probe(final String url) {
+			this.task = new FutureTask<Boolean>(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					try {
+						return url != null && probe(url);
+					} finally {
+						completed = System.currentTimeMillis();
+					}
+				}
+			});
+		}
+
+		boolean isExpired() {
+			return task.isDone() && System.currentTimeMillis() - completed > ttl;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package com.tradeshift.test.remote.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The endpoints tests are sent to, each running a limited number of tests at the same time. Requests wait here until
+ * an endpoint has room for them, rather than each holding a thread of a pool sized to the number of endpoints.
+ *
+ * A lock and condition are used instead of synchronized and wait(), so waiting virtual threads don't pin their
+ * carrier threads.
+ */
+public class EndpointPool {
+
+	private final List<Endpoint> endpoints;
+	private final EndpointSelector selector;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+
+	/**
+	 * @throws IllegalArgumentException if an endpoint isn't http, which is all the {@link ConnectionPool} speaks
+	 */
+	public EndpointPool(List<Endpoint> endpoints, EndpointSelector selector) {
+		for (Endpoint endpoint : endpoints) {
+			if (!endpoint.getUrl().regionMatches(true, 0, "http://", 0, 7)) {
+				throw new IllegalArgumentException("Unsupported endpoint " + endpoint.getUrl() + ", only http:// endpoints are supported");
+			}
+		}
+		this.endpoints = Collections.unmodifiableList(new ArrayList<Endpoint>(endpoints));
+		this.selector = selector;
+	}
+
+	public List<Endpoint> getEndpoints() {
+		return endpoints;
+	}
+
+	/**
+	 * The number of tests which can run at the same time on all endpoints.
+	 */
+	public int getCapacity() {
+		int capacity = 0;
+		for (Endpoint endpoint : endpoints) {
+			capacity += endpoint.getLimit();
+		}
+		return capacity;
+	}
+
+	/**
+	 * Wait until one of the endpoints has room for another test, and choose it with the selector. Endpoints with an
+	 * open circuit are only used if all other endpoints are excluded. The chosen endpoint must be given back with
+	 * {@link #finished(Endpoint, long)} or {@link #abandoned(Endpoint)}.
+	 *
+	 * @param excluded Endpoints not to use
+	 * @return the endpoint, or null if all endpoints are excluded
+	 */
+	public Endpoint acquire(Collection<Endpoint> excluded) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (true) {
+				List<Endpoint> allowed = new ArrayList<Endpoint>(endpoints.size());
+				List<Endpoint> open = new ArrayList<Endpoint>();
+				for (Endpoint endpoint : endpoints) {
+					if (!excluded.contains(endpoint)) {
+						(endpoint.isOpen() ? open : allowed).add(endpoint);
+					}
+				}
+				if (allowed.isEmpty()) {
+					if (open.isEmpty()) {
+						return null;
+					}
+					// Better to try a failing endpoint than to give up
+					allowed = open;
+				}
+				List<Endpoint> candidates = new ArrayList<Endpoint>(allowed.size());
+				for (Endpoint endpoint : allowed) {
+					if (endpoint.getInFlight() < endpoint.getLimit()) {
+						candidates.add(endpoint);
+					}
+				}
+				if (!candidates.isEmpty()) {
+					Endpoint endpoint = selector.select(candidates);
+					endpoint.started();
+					return endpoint;
+				}
+				released.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void finished(Endpoint endpoint, long millis) {
+		endpoint.finished(millis);
+		signal();
+	}
+
+	public void abandoned(Endpoint endpoint) {
+		endpoint.abandoned();
+		signal();
+	}
+
+	private void signal() {
+		lock.lock();
+		try {
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
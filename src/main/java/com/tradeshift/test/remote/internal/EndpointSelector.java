@@ -0,0 +1,81 @@
+package com.tradeshift.test.remote.internal;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the endpoint to send the next test to. The selector is configured with the junit.remote.scheduling system
+ * property, which is either the name of one of the built in selectors, or the name of a class implementing this
+ * interface with a public no-arg constructor.
+ *
+ * <ul>
+ * <li>roundRobin - Each endpoint in turn</li>
+ * <li>leastOutstanding - The endpoint with the fewest tests in progress (default)</li>
+ * <li>latency - The endpoint with the lowest expected wait, based on the average latency and tests in progress</li>
+ * </ul>
+ */
+public interface EndpointSelector {
+
+	/**
+	 * @param endpoints Endpoints to choose from, never empty
+	 */
+	Endpoint select(List<Endpoint> endpoints);
+
+	public static class RoundRobin implements EndpointSelector {
+		private final AtomicInteger next = new AtomicInteger();
+
+		@Override
+		public Endpoint select(List<Endpoint> endpoints) {
+			return endpoints.get((next.getAndIncrement() & Integer.MAX_VALUE) % endpoints.size());
+		}
+	}
+
+	/**
+	 * Base class for selectors picking the endpoint with the lowest score. Ties are broken by starting the search at
+	 * a different endpoint each time, so idle endpoints are used evenly.
+	 */
+	public static abstract class LowestScore implements EndpointSelector {
+		private final AtomicInteger offset = new AtomicInteger();
+
+		@Override
+		public Endpoint select(List<Endpoint> endpoints) {
+			int size = endpoints.size();
+			int start = (offset.getAndIncrement() & Integer.MAX_VALUE) % size;
+			Endpoint best = null;
+			double bestScore = Double.MAX_VALUE;
+			for (int i = 0; i < size; i++) {
+				Endpoint endpoint = endpoints.get((start + i) % size);
+				double score = score(endpoint);
+				if (best == null || score < bestScore) {
+					best = endpoint;
+					bestScore = score;
+				}
+			}
+			return best;
+		}
+
+		protected abstract double score(Endpoint endpoint);
+	}
+
+	public static class LeastOutstanding extends LowestScore {
+		@Override
+		protected double score(Endpoint endpoint) {
+			return endpoint.getInFlight();
+		}
+	}
+
+	/**
+	 * Scores endpoints by the time a new test is expected to take, assuming tests in progress slow it down. Endpoints
+	 * without any completed requests are tried first, so every endpoint gets measured.
+	 */
+	public static class LatencyWeighted extends LowestScore {
+		@Override
+		protected double score(Endpoint endpoint) {
+			double latency = endpoint.getLatency();
+			if (latency < 0) {
+				return endpoint.getInFlight() == 0 ? -1 : Double.MAX_VALUE / 2;
+			}
+			return (latency + 1) * (endpoint.getInFlight() + 1);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.tradeshift.test.remote.internal;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ends a run once junit.remote.failFast tests have failed, 0 (the default) meaning never. From then on tests which
+ * haven't been sent are reported as ignored, and the requests of tests which are running are aborted, which tells the
+ * servers to stop them. This is for the whole JVM, so it covers all test classes.
+ */
+public class FailFast {
+
+	private static final Logger log = LoggerFactory.getLogger(FailFast.class);
+
+	private static final FailFast INSTANCE = new FailFast(Integer.getInteger("junit.remote.failFast", 0));
+
+	/**
+	 * Something which is running, and can be stopped when the run ends.
+	 */
+	public interface Cancellable {
+		void cancel();
+	}
+
+	private final int threshold;
+	private final AtomicInteger failures = new AtomicInteger();
+	private final Set<Cancellable> running = Collections.newSetFromMap(new ConcurrentHashMap<Cancellable, Boolean>());
+	private volatile boolean tripped;
+
+	public FailFast(int threshold) {
+		this.threshold = threshold;
+	}
+
+	public static FailFast get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * A listener counting the failures it is told about.
+	 */
+	public RunListener getListener() {
+		return new RunListener() {
+			@Override
+			public void testFailure(Failure failure) {
+				failed();
+			}
+		};
+	}
+
+	void failed() {
+		if (threshold > 0 && failures.incrementAndGet() >= threshold && !tripped) {
+			tripped = true;
+			log.warn("{} tests failed, skipping the remaining tests", failures.get());
+			for (Cancellable c : running) {
+				c.cancel();
+			}
+		}
+	}
+
+	/**
+	 * @return true once the run should end
+	 */
+	public boolean isTripped() {
+		return tripped;
+	}
+
+	/**
+	 * Keep track of something running until it is done, cancelling it right away if the run has already ended.
+	 */
+	public void started(Cancellable c) {
+		if (threshold <= 0) {
+			return;
+		}
+		running.add(c);
+		if (tripped) {
+			c.cancel();
+		}
+	}
+
+	public void finished(Cancellable c) {
+		running.remove(c);
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+}
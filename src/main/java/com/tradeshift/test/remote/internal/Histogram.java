@@ -0,0 +1,85 @@
+package com.tradeshift.test.remote.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations in milliseconds over the whole run. Values are counted in buckets growing by
+ * powers of two, so percentiles are accurate to within a factor of two, which is enough to tell a slow network from a
+ * slow test.
+ */
+public class Histogram {
+
+	/**
+	 * Bucket 0 holds 0 ms, bucket i holds values from 2^(i-1) up to 2^i - 1, and the last bucket everything larger.
+	 */
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long millis) {
+		if (millis < 0) {
+			return;
+		}
+		buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis)));
+		count.incrementAndGet();
+		sum.addAndGet(millis);
+		while (true) {
+			long current = max.get();
+			if (millis <= current || max.compareAndSet(current, millis)) {
+				return;
+			}
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * The mean in milliseconds, or 0 if nothing was recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * The upper bound of the bucket holding the given percentile, but no more than the largest value recorded, or 0
+	 * if nothing was recorded.
+	 *
+	 * @param percentile Between 0 and 100
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return i == 0 ? 0 : Math.min((1L << i) - 1, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", getCount(), getMean(), getPercentile(50),
+				getPercentile(90), getPercentile(99), getMax());
+	}
+}
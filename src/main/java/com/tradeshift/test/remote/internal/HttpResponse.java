@@ -0,0 +1,198 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Response read from a {@link PooledConnection}. Closing the body returns the connection to the pool if the body has
+ * been read completely, otherwise the connection is closed.
+ */
+public class HttpResponse {
+
+	/**
+	 * Unread data to skip when closing the body before the connection is closed instead of reused.
+	 */
+	private static final int MAX_DRAIN = 65536;
+
+	private final PooledConnection connection;
+	private final int status;
+	private final String message;
+	private final Map<String, String> headers;
+	private final BodyStream body;
+
+	HttpResponse(PooledConnection connection, int status, String message, Map<String, String> headers, InputStream in, boolean keepAlive) {
+		this.connection = connection;
+		this.status = status;
+		this.message = message;
+		this.headers = headers;
+
+		String length = headers.get("content-length");
+		if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+			body = new ChunkedStream(in, keepAlive);
+		} else if (length != null) {
+			body = new BodyStream(in, Long.parseLong(length), keepAlive);
+		} else {
+			body = new BodyStream(in, -1, false);
+		}
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @param name Lower case header name
+	 */
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+	public InputStream getBody() {
+		return body;
+	}
+
+	/**
+	 * Abort the response, closing the underlying connection.
+	 */
+	public void abort() {
+		body.finished = true;
+		connection.discard();
+	}
+
+	/**
+	 * Body with a fixed length, or read until the server closes the connection if the length is negative.
+	 */
+	private class BodyStream extends InputStream {
+		final InputStream in;
+		final boolean keepAlive;
+		long remaining;
+		boolean eof;
+		boolean finished;
+
+		BodyStream(InputStream in, long length, boolean keepAlive) {
+			this.in = in;
+			this.remaining = length;
+			this.keepAlive = keepAlive;
+			this.eof = length == 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int read = read(b, 0, 1);
+			return read == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (eof) {
+				return -1;
+			}
+			if (remaining >= 0 && len > remaining) {
+				len = (int) remaining;
+			}
+			int read = in.read(b, off, len);
+			if (read == -1) {
+				if (remaining > 0) {
+					throw new EOFException("Connection closed before end of response");
+				}
+				eof = true;
+				return -1;
+			}
+			if (remaining > 0) {
+				remaining -= read;
+				eof = remaining == 0;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!finished) {
+				finished = true;
+				connection.release(keepAlive && drain());
+			}
+		}
+
+		private boolean drain() {
+			byte[] b = new byte[4096];
+			int drained = 0;
+			try {
+				while (!eof && drained < MAX_DRAIN) {
+					int read = read(b, 0, b.length);
+					if (read > 0) {
+						drained += read;
+					}
+				}
+			} catch (IOException e) {
+				return false;
+			}
+			return eof;
+		}
+	}
+
+	/**
+	 * Body using the chunked transfer encoding.
+	 */
+	private class ChunkedStream extends BodyStream {
+		ChunkedStream(InputStream in, boolean keepAlive) {
+			super(in, 0, keepAlive);
+			eof = false;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (eof) {
+				return -1;
+			}
+			if (remaining == 0) {
+				remaining = readChunkSize();
+				if (remaining == 0) {
+					// Trailers, ended by an empty line
+					while (readLine().length() > 0) {
+					}
+					eof = true;
+					return -1;
+				}
+			}
+			int read = in.read(b, off, (int) Math.min(len, remaining));
+			if (read == -1) {
+				throw new EOFException("Connection closed before end of response");
+			}
+			remaining -= read;
+			if (remaining == 0) {
+				readLine();
+			}
+			return read;
+		}
+
+		private long readChunkSize() throws IOException {
+			String line = readLine();
+			int ext = line.indexOf(';');
+			if (ext != -1) {
+				line = line.substring(0, ext);
+			}
+			return Long.parseLong(line.trim(), 16);
+		}
+
+		private String readLine() throws IOException {
+			StringBuilder sb = new StringBuilder();
+			int c;
+			while ((c = in.read()) != '\n') {
+				if (c == -1) {
+					throw new EOFException("Connection closed before end of response");
+				}
+				if (c != '\r') {
+					sb.append((char) c);
+				}
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -3,70 +3,111 @@ package com.tradeshift.test.remote.internal;
 import junit.framework.AssertionFailedError;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.internal.AssumptionViolatedException;
 import org.junit.runner.Description;
 import org.junit.runner.Runner;
 import org.junit.runner.manipulation.Filter;
 import org.junit.runner.manipulation.NoTestsRemainException;
 import org.junit.runner.manipulation.Sorter;
 import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
 import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.RunnerScheduler;
+import org.junit.runners.model.Statement;
 import org.junit.runners.model.TestClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
+import com.tradeshift.test.remote.Remote;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
 import java.net.ConnectException;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.nio.charset.Charset;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class InternalRemoteRunner
 		extends BlockJUnit4ClassRunner {
 
 	private static final Logger log = LoggerFactory.getLogger(InternalRemoteRunner.class);
 
-	private static List<String> endpoints = new ArrayList<String>();
-	private static int currentEndpoint = 0;
+	private static EndpointPool endpoints;
 	private Description description;
 	private Map<Description, String> methodNames = new HashMap<Description, String>();
+	/**
+	 * The tests described by the server, or null if the tests are the @Test methods of the class.
+	 */
+	private List<Description> tests;
 	private final Class<?> testClass;
 	private Class<? extends Runner> remoteRunnerClass;
+	private final boolean batch;
+	/**
+	 * Milliseconds each test may run on the server, or 0 for the server's -testTimeout.
+	 */
+	private final long timeout;
+	private final int readTimeout;
 	private static ExecutorService executorService;
-	private static final ReducibleSemaphore SEMAPHORE = new ReducibleSemaphore();
+	private static final long BUSY_TIMEOUT = Long.getLong("junit.remote.busyTimeout", 600000);
+	private static final int RETRIES = Integer.getInteger("junit.remote.retries", 2);
+	private static final int CIRCUIT_FAILURES = Integer.getInteger("junit.remote.circuit.failures", 3);
+	private static final long CIRCUIT_COOL_DOWN = Long.getLong("junit.remote.circuit.coolDown", 30000);
+	private static final double HEDGE_PERCENTILE = Double.parseDouble(System.getProperty("junit.remote.hedge", "0"));
+	private static final long HEDGE_MIN_DELAY = Long.getLong("junit.remote.hedge.minDelay", 1000);
+	private static final boolean RESULT_CACHE = !"false".equals(System.getProperty("junit.remote.resultCache"));
+	private static final String DISCOVER = System.getProperty("junit.remote.discover");
+	private static final int READ_TIMEOUT = Integer.getInteger("junit.remote.readTimeout", 120000);
+	private static final int DISCOVER_TIMEOUT = Integer.getInteger("junit.remote.discover.timeout", 5000);
+	private static final ExecutorService HEDGE_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
 
-	public InternalRemoteRunner(Class<?> testClass, String endpoint, Class<? extends Runner> remoteRunnerClass)
-			throws InitializationError {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "remote-hedge-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private final ReducibleSemaphore semaphore = new ReducibleSemaphore();
+	private final RunnerScheduler scheduler;
+
+	public InternalRemoteRunner(Class<?> testClass, String endpoint, Class<? extends Runner> remoteRunnerClass, boolean batch,
+			long timeout) throws InitializationError {
 		super(testClass);
 		this.testClass = testClass;
 		this.remoteRunnerClass = remoteRunnerClass;
-		TestClass tc = new TestClass(testClass);
-
-		description = Description.createTestDescription(testClass, tc.getName(), tc.getAnnotations());
-
-		for (FrameworkMethod method : tc.getAnnotatedMethods(Test.class)) {
-			String methodName = method.getName();
-			Description child = Description.createTestDescription(testClass, methodName, method.getAnnotations());
-
-			methodNames.put(child, methodName);
-			description.addChild(child);
-		}
+		this.batch = batch;
+		this.timeout = timeout;
+		// A test which times out is given some time to stop, and the server must be able to report it before giving up
+		this.readTimeout = timeout > 0 ? (int) Math.max(READ_TIMEOUT, timeout + 60000) : READ_TIMEOUT;
 
 		if (executorService == null) {
 			String ep = System.getProperty("junit.remote.endpoint");
@@ -74,36 +115,150 @@ public class InternalRemoteRunner
 				ep = endpoint;
 			}
 
-			for (String e : ep.split(",")) {
-				if (e.trim().equals("")) { continue; }
-				endpoints.add(e.trim());
+			endpoints = createEndpoints(ep, Integer.getInteger("junit.remote.concurrency", 0),
+					createSelector(System.getProperty("junit.remote.scheduling", "leastOutstanding")));
+			executorService = createExecutor(endpoints.getCapacity());
+			ClientMetrics.get().setEndpoints(endpoints);
+		}
+
+		if (DISCOVER != null ? Boolean.parseBoolean(DISCOVER) : remoteRunnerClass != BlockJUnit4ClassRunner.class) {
+			discover();
+		}
+		if (tests == null) {
+			TestClass tc = new TestClass(testClass);
+
+			description = Description.createTestDescription(testClass, tc.getName(), tc.getAnnotations());
+
+			for (FrameworkMethod method : tc.getAnnotatedMethods(Test.class)) {
+				String methodName = method.getName();
+				Description child = Description.createTestDescription(testClass, methodName, method.getAnnotations());
+
+				methodNames.put(child, methodName);
+				description.addChild(child);
 			}
-			executorService = Executors.newFixedThreadPool(endpoints.size());
 		}
 
-		setScheduler(
-				new RunnerScheduler() {
-					@Override
-					public void schedule(final Runnable childStatement) {
-						SEMAPHORE.reducePermits(1);
-						executorService.submit(new SemaphoreDelegate(childStatement));
-					}
+		scheduler = new RunnerScheduler() {
+			@Override
+			public void schedule(final Runnable childStatement) {
+				semaphore.reducePermits(1);
+				executorService.submit(new SemaphoreDelegate(childStatement, semaphore));
+			}
 
-					@Override
-					public void finished() {
-						try {
-							SEMAPHORE.acquire();
-							SEMAPHORE.release();
-						} catch (InterruptedException ignore) {
-							Thread.currentThread().interrupt();
-						}
+			@Override
+			public void finished() {
+				try {
+					semaphore.acquire();
+					semaphore.release();
+				} catch (InterruptedException ignore) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		setScheduler(scheduler);
+	}
+
+	/**
+	 * The test class is checked by the runner which runs it on the server. Unless that is a BlockJUnit4ClassRunner, it
+	 * may accept classes a BlockJUnit4ClassRunner doesn't, such as parameterized tests taking their parameters in the
+	 * constructor, or theories without any @Test methods.
+	 */
+	@Override
+	protected void collectInitializationErrors(List<Throwable> errors) {
+		Remote remote = Utils.findAnnotation(getTestClass().getJavaClass(), Remote.class);
+		if (remote == null || remote.runnerClass() == BlockJUnit4ClassRunner.class) {
+			super.collectInitializationErrors(errors);
+		}
+	}
+
+	/**
+	 * Ask a server for the tests of the runner, so tests which aren't methods of the class, such as the parameter sets
+	 * of a Parameterized test, can be sent to the servers one by one. This is done for runners other than
+	 * BlockJUnit4ClassRunner, or as given by junit.remote.discover. If no server can describe the tests, or they can't
+	 * be told apart by their method names, the @Test methods of the class are used instead.
+	 *
+	 * This runs while the runner is created, for example when an IDE looks for tests, so it gives up after
+	 * junit.remote.discover.timeout milliseconds, 5000 by default, rather than the timeout of running tests.
+	 */
+	private void discover() {
+		List<Endpoint> dead = getDeadEndpoints();
+		long deadline = System.currentTimeMillis() + DISCOVER_TIMEOUT;
+		for (Endpoint endpoint : endpoints.getEndpoints()) {
+			if (dead.contains(endpoint)) {
+				continue;
+			}
+			int remaining = (int) (deadline - System.currentTimeMillis());
+			if (remaining <= 0) {
+				log.debug("Gave up describing {} after {} ms", testClass.getName(), DISCOVER_TIMEOUT);
+				return;
+			}
+			try {
+				HttpResponse response = ConnectionPool.get().executeUnlimited(new URI(endpoint.getUrl() + testClass.getName() + "?runner="
+						+ encode(remoteRunnerClass.getName())), "GET", null, null, remaining, remaining);
+				InputStream in = response.getBody();
+				Description discovered;
+				try {
+					String contentType = response.getHeader("content-type");
+					if (response.getStatus() != 200 || contentType == null || !contentType.startsWith(Descriptions.CONTENT_TYPE)) {
+						// Servers before discovery was added answer GET with an empty response
+						log.debug("Host {} can't describe {}: {}", new Object[] { endpoint, testClass.getName(), response.getMessage() });
+						continue;
+					}
+					discovered = Descriptions.read(in);
+				} finally {
+					in.close();
+				}
+				if (discovered == null) {
+					return;
+				}
+				List<Description> found = Descriptions.getTests(discovered);
+				Set<String> names = new HashSet<String>();
+				for (Description test : found) {
+					if (test.getMethodName() == null || !names.add(test.getMethodName())) {
+						log.debug("Tests of {} can't be told apart by name, running them by method", testClass.getName());
+						return;
 					}
-				});
+				}
+				description = discovered;
+				tests = found;
+				return;
+			} catch (URISyntaxException e) {
+				throw new RuntimeException("Unable to create remote url", e);
+			} catch (IOException e) {
+				log.debug("Unable to describe {} on {}: {}", new Object[] { testClass.getName(), endpoint, e.toString() });
+			}
+		}
+	}
+
+	/**
+	 * Run the tests, counting their failures for junit.remote.failFast.
+	 */
+	@Override
+	public void run(RunNotifier notifier) {
+		if (FailFast.get().getThreshold() <= 0) {
+			super.run(notifier);
+			return;
+		}
+		RunListener listener = FailFast.get().getListener();
+		notifier.addListener(listener);
+		try {
+			super.run(notifier);
+		} finally {
+			notifier.removeListener(listener);
+		}
 	}
 
 	@Override
 	public void filter(Filter filter)
 			throws NoTestsRemainException {
+		if (tests != null) {
+			filter(description, filter);
+			tests = Descriptions.getTests(description);
+			if (tests.isEmpty() || !description.isSuite() && !filter.shouldRun(description)) {
+				throw new NoTestsRemainException();
+			}
+			return;
+		}
 		super.filter(filter);
 		List<Description> children = description.getChildren();
 
@@ -121,9 +276,62 @@ public class InternalRemoteRunner
 		}
 	}
 
+	/**
+	 * The children in the order they are sent to the servers: the slowest tests in previous runs go first, so a long
+	 * test does not start last and hold up the end of the run. Tests without a recorded duration go before all of them.
+	 */
+	@Override
+	protected List<FrameworkMethod> getChildren() {
+		List<FrameworkMethod> children = new ArrayList<FrameworkMethod>(super.getChildren());
+		final Class<?> javaClass = getTestClass().getJavaClass();
+		final TestDurations durations = TestDurations.get();
+		Collections.sort(children, new Comparator<FrameworkMethod>() {
+			@Override
+			public int compare(FrameworkMethod m1, FrameworkMethod m2) {
+				return Long.valueOf(expected(m2)).compareTo(expected(m1));
+			}
+
+			private long expected(FrameworkMethod method) {
+				long duration = durations.getDuration(javaClass, method.getName());
+				return duration < 0 ? Long.MAX_VALUE : duration;
+			}
+		});
+		return children;
+	}
+
+	/**
+	 * Remove the tests the filter rejects from a description tree, and the suites left without tests.
+	 */
+	private static void filter(Description description, Filter filter) {
+		Iterator<Description> itr = description.getChildren().iterator();
+		while (itr.hasNext()) {
+			Description child = itr.next();
+			if (child.isSuite()) {
+				filter(child, filter);
+				if (child.getChildren().isEmpty()) {
+					itr.remove();
+				}
+			} else if (!filter.shouldRun(child)) {
+				itr.remove();
+			}
+		}
+	}
+
 	@Override
 	public void sort(Sorter sorter) {
+		if (tests != null) {
+			sort(description, sorter);
+			tests = Descriptions.getTests(description);
+			return;
+		}
+		Collections.sort(description.getChildren(), sorter);
+	}
+
+	private static void sort(Description description, Sorter sorter) {
 		Collections.sort(description.getChildren(), sorter);
+		for (Description child : description.getChildren()) {
+			sort(child, sorter);
+		}
 	}
 
 	@Override
@@ -132,8 +340,240 @@ public class InternalRemoteRunner
 	}
 
 	@Override
-	protected void runChild(FrameworkMethod method, RunNotifier notifier) {
-		Description description = describeChild(method);
+	protected Statement childrenInvoker(final RunNotifier notifier) {
+		if (batch) {
+			return new Statement() {
+				@Override
+				public void evaluate() {
+					runBatch(notifier);
+				}
+			};
+		}
+		if (tests != null) {
+			return new Statement() {
+				@Override
+				public void evaluate() {
+					runTests(notifier);
+				}
+			};
+		}
+		return super.childrenInvoker(notifier);
+	}
+
+	/**
+	 * Send each of the tests described by the server in a request of its own, the slowest first, as with methods.
+	 */
+	private void runTests(final RunNotifier notifier) {
+		List<Description> ordered = new ArrayList<Description>(tests);
+		final TestDurations durations = TestDurations.get();
+		Collections.sort(ordered, new Comparator<Description>() {
+			@Override
+			public int compare(Description d1, Description d2) {
+				return Long.valueOf(expected(d2)).compareTo(expected(d1));
+			}
+
+			private long expected(Description test) {
+				long duration = durations.getDuration(testClass, test.getMethodName());
+				return duration < 0 ? Long.MAX_VALUE : duration;
+			}
+		});
+		for (final Description test : ordered) {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					runTest(test, notifier);
+				}
+			});
+		}
+		scheduler.finished();
+	}
+
+	/**
+	 * Run a test described by the server. The events are passed on as the server reports them, as the test may turn out
+	 * to be ignored.
+	 */
+	private void runTest(final Description test, final RunNotifier notifier) {
+		if (FailFast.get().isTripped()) {
+			notifier.fireTestIgnored(test);
+			return;
+		}
+		final String methodName = test.getMethodName();
+		final long started = System.currentTimeMillis();
+		final long[] ran = { -1 };
+		final boolean[] reported = new boolean[2];
+		try {
+			runRemote(methodName, new OutputHandler() {
+				@Override
+				public void timing(long queueMillis, long runMillis) {
+					super.timing(queueMillis, runMillis);
+					ran[0] = runMillis;
+				}
+
+				@Override
+				public void testStarted(String name) {
+					reported[0] = true;
+					notifier.fireTestStarted(test);
+				}
+
+				@Override
+				public void testFinished(String name) {
+					reported[1] = true;
+					notifier.fireTestFinished(test);
+				}
+
+				@Override
+				public void testFailure(String name, Throwable t) {
+					notifier.fireTestFailure(new Failure(test, t));
+				}
+
+				@Override
+				public void testAssumptionFailure(String name, Throwable t) {
+					notifier.fireTestAssumptionFailed(new Failure(test, t));
+				}
+
+				@Override
+				public void testIgnored(String name) {
+					reported[0] = true;
+					reported[1] = true;
+					notifier.fireTestIgnored(test);
+				}
+			});
+			if (!reported[1]) {
+				throw new AssertionFailedError("No result received from remote server");
+			}
+			TestDurations.get().record(testClass, methodName, ran[0] >= 0 ? ran[0] : System.currentTimeMillis() - started);
+		} catch (Throwable e) {
+			if (!reported[0]) {
+				notifier.fireTestStarted(test);
+			}
+			if (e instanceof AssumptionViolatedException) {
+				notifier.fireTestAssumptionFailed(new Failure(test, e));
+			} else {
+				e.printStackTrace();
+				notifier.fireTestFailure(new Failure(test, e));
+			}
+			if (!reported[1]) {
+				notifier.fireTestFinished(test);
+			}
+		}
+	}
+
+	/**
+	 * Run all selected children in a single request. The server reports each test as a separate event line, which is
+	 * passed on to the notifier as it arrives.
+	 */
+	private void runBatch(final RunNotifier notifier) {
+		final Map<String, Description> pending = new LinkedHashMap<String, Description>();
+		StringBuilder params = new StringBuilder("batch=true");
+		for (Description child : tests != null ? tests : description.getChildren()) {
+			if (child.getAnnotation(Ignore.class) != null || FailFast.get().isTripped()) {
+				notifier.fireTestIgnored(child);
+			} else {
+				pending.put(child.getMethodName(), child);
+				params.append("&method=").append(encode(child.getMethodName()));
+			}
+		}
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		final Description[] current = new Description[1];
+		final long[] started = new long[1];
+		try {
+			String batchParams = params.toString();
+			run(batchParams, new OutputHandler() {
+				@Override
+				public void testStarted(String methodName) {
+					Description child = getChild(methodName);
+					if (child != null) {
+						current[0] = child;
+						started[0] = System.currentTimeMillis();
+						notifier.fireTestStarted(child);
+					}
+				}
+
+				@Override
+				public void testFinished(String methodName) {
+					Description child = getChild(methodName);
+					if (child != null) {
+						if (child == current[0]) {
+							TestDurations.get().record(testClass, methodName, System.currentTimeMillis() - started[0]);
+						}
+						current[0] = null;
+						pending.remove(methodName);
+						notifier.fireTestFinished(child);
+					}
+				}
+
+				@Override
+				public void testFailure(String methodName, Throwable t) {
+					Description child = getChild(methodName);
+					if (child != null) {
+						notifier.fireTestFailure(new Failure(child, t));
+					}
+				}
+
+				@Override
+				public void testAssumptionFailure(String methodName, Throwable t) {
+					Description child = getChild(methodName);
+					if (child != null) {
+						notifier.fireTestAssumptionFailed(new Failure(child, t));
+					}
+				}
+
+				@Override
+				public void testIgnored(String methodName) {
+					Description child = getChild(methodName);
+					if (child != null) {
+						pending.remove(methodName);
+						notifier.fireTestIgnored(child);
+					}
+				}
+
+				private Description getChild(String methodName) {
+					Description child = methodName.length() == 0 ? description : pending.get(methodName);
+					if (child == null) {
+						log.error("Result for unknown test {}", methodName);
+					}
+					return child;
+				}
+			}, new Attempt(batchParams, Collections.<Endpoint>emptyList()));
+		} catch (Throwable e) {
+			if (e instanceof AssumptionViolatedException) {
+				if (current[0] != null) {
+					notifier.fireTestAssumptionFailed(new Failure(current[0], e));
+					notifier.fireTestFinished(current[0]);
+					pending.remove(current[0].getMethodName());
+				}
+				for (Description child : pending.values()) {
+					notifier.fireTestIgnored(child);
+				}
+				pending.clear();
+				return;
+			}
+			e.printStackTrace();
+			if (current[0] != null) {
+				notifier.fireTestFailure(new Failure(current[0], e));
+				notifier.fireTestFinished(current[0]);
+				pending.remove(current[0].getMethodName());
+			}
+			for (Description child : pending.values()) {
+				notifier.fireTestStarted(child);
+				notifier.fireTestFailure(new Failure(child, e));
+				notifier.fireTestFinished(child);
+			}
+			pending.clear();
+		}
+		for (Description child : pending.values()) {
+			notifier.fireTestStarted(child);
+			notifier.fireTestFailure(new Failure(child, new AssertionFailedError("No result received from remote server")));
+			notifier.fireTestFinished(child);
+		}
+	}
+
+	@Override
+	protected void runChild(FrameworkMethod method, final RunNotifier notifier) {
+		final Description description = describeChild(method);
 		if (method.getAnnotation(Ignore.class) != null) {
 			notifier.fireTestIgnored(description);
 			return;
@@ -145,104 +585,645 @@ public class InternalRemoteRunner
 //			notifier.fireTestIgnored(description);
 			return;
 		}
+		if (FailFast.get().isTripped()) {
+			notifier.fireTestIgnored(description);
+			return;
+		}
 
+		final long started = System.currentTimeMillis();
+		final long[] ran = { -1 };
 		try {
 			notifier.fireTestStarted(description);
-			HttpURLConnection connection = getUrl(methodName, "POST");
-			handleError(connection);
-
-			String enc = connection.getContentEncoding();
-			if (enc == null) { enc = "ISO-8859-1"; }
-			InputStream is = connection.getInputStream();
-			BufferedReader reader = new BufferedReader(new InputStreamReader(is, Charset.forName(enc)));
-			String line = null;
-			while ((line = reader.readLine()) != null) {
-				if (line.startsWith("E")) {
-					System.err.println(line.substring(1).trim());
-				} else if (line.startsWith("O")) {
-					System.out.println(line.substring(1).trim());
-				} else if (line.startsWith("RSUCCESS")) {
-					break;
-				} else if (line.startsWith("RERROR")) {
-					StringBuilder error = new StringBuilder(line.substring(6));
-					while ((line = reader.readLine()) != null) {
-						error.append(line).append("\n");
-					}
-					throw new AssertionFailedError(error.toString());
-				} else {
-					log.error("Protocol error in response: {}", line);
+			ResultHandler handler = new OutputHandler() {
+				@Override
+				public void timing(long queueMillis, long runMillis) {
+					super.timing(queueMillis, runMillis);
+					ran[0] = runMillis;
 				}
-			}
-			is.close();
-			connection.disconnect();
+
+				@Override
+				public void testFailure(String methodName, Throwable t) {
+					notifier.fireTestFailure(new Failure(description, t));
+				}
+
+				@Override
+				public void testAssumptionFailure(String methodName, Throwable t) {
+					notifier.fireTestAssumptionFailed(new Failure(description, t));
+				}
+			};
+			runRemote(methodName, handler);
+			TestDurations.get().record(testClass, methodName, ran[0] >= 0 ? ran[0] : System.currentTimeMillis() - started);
 		} catch (Throwable e) {
-			e.printStackTrace();
-			notifier.fireTestFailure(new Failure(description, e));
+			if (e instanceof AssumptionViolatedException) {
+				notifier.fireTestAssumptionFailed(new Failure(description, e));
+			} else {
+				e.printStackTrace();
+				notifier.fireTestFailure(new Failure(description, e));
+			}
 		} finally {
 			notifier.fireTestFinished(description);
 		}
 
 	}
 
-	private void handleError(HttpURLConnection connection)
-			throws IOException {
-		if (connection.getResponseCode() != 200) {
-			String error = null;
-			InputStream err = connection.getErrorStream();
-			if (err != null) {
-				error = Utils.toString(err);
+	/**
+	 * Run a single test, hedged if junit.remote.hedge is set.
+	 */
+	private void runRemote(String methodName, ResultHandler handler)
+			throws Throwable {
+		String params = "method=" + encode(methodName);
+		if (HEDGE_PERCENTILE > 0) {
+			runHedged(params, handler, TestDurations.get().getDuration(testClass, methodName));
+		} else {
+			run(params, handler, new Attempt(params, Collections.<Endpoint>emptyList()));
+		}
+	}
+
+	/**
+	 * Send a request and read the results, using the binary protocol if the server supports it.
+	 *
+	 * If the request fails before the server has reported any results, the test has not started yet, and it is sent
+	 * to another endpoint, up to junit.remote.retries times. Servers only speaking the text protocol don't say when a
+	 * test starts, so their requests are only retried if the response never arrived.
+	 *
+	 * @throws AssumptionViolatedException if the attempt was cancelled by junit.remote.failFast, whatever else went
+	 *         wrong because of it
+	 */
+	private void run(String params, ResultHandler handler, Attempt attempt)
+			throws Throwable {
+		List<Endpoint> failed = new ArrayList<Endpoint>(attempt.excluded);
+		FailFast.get().started(attempt);
+		try {
+			for (int retry = 0; ; retry++) {
+				TrackingHandler tracker = new TrackingHandler(handler);
+				try {
+					send(params, tracker, failed, attempt);
+					return;
+				} catch (IOException e) {
+					if (attempt.aborted || tracker.isStarted() || retry >= RETRIES) {
+						throw e;
+					}
+					if (!failed.isEmpty()) {
+						failed.get(failed.size() - 1).retried();
+					}
+					ClientMetrics.get().retried();
+					log.warn("Request for {} failed before the test started, trying another host: {}", testClass.getName(), e.toString());
+				}
 			}
-			if (error == null) {
-				error = connection.getResponseMessage();
+		} catch (Throwable t) {
+			throw attempt.cancelled ? cancelled() : t;
+		} finally {
+			FailFast.get().finished(attempt);
+		}
+	}
+
+	/**
+	 * The reason given for tests which were cancelled by junit.remote.failFast while they ran.
+	 */
+	private static AssumptionViolatedException cancelled() {
+		return new AssumptionViolatedException("Cancelled after " + FailFast.get().getThreshold() + " failures");
+	}
+
+	/**
+	 * Ask the server to stop running the tests of an aborted request. Servers also notice when they can't send the
+	 * results, but only once the tests write something.
+	 */
+	private static void sendCancel(final Call call) {
+		HEDGE_EXECUTOR.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					HttpResponse response = ConnectionPool.get().executeUnlimited(new URI(call.endpoint.getUrl() + "-/cancel?id=" + call.id), "POST",
+							null, null, 10000);
+					response.getBody().close();
+				} catch (Exception e) {
+					log.debug("Unable to cancel request {} on {}: {}", new Object[] { call.id, call.endpoint, e.toString() });
+				}
+			}
+		});
+	}
+
+	/**
+	 * Send a single request and read the results. If this fails because of the endpoint, it is added to the failed
+	 * endpoints.
+	 */
+	private void send(String params, TrackingHandler handler, List<Endpoint> failed, Attempt attempt)
+			throws Throwable {
+		Call call = request(params + "&protocol=" + Protocol.BINARY, failed);
+		attempt.setCall(call);
+		try {
+			HttpResponse response = call.response;
+			handleError(response);
+
+			ResultReader reader;
+			if (Protocol.isBinary(response.getHeader("content-type"))) {
+				reader = new BinaryResultReader();
+			} else {
+				handler.setStarted();
+				reader = new TextResultReader(response.getHeader("content-encoding"));
+			}
+			InputStream in = response.getBody();
+			try {
+				reader.read(in, handler);
+			} finally {
+				in.close();
+			}
+			call.done = true;
+			call.endpoint.succeeded();
+			ClientMetrics.get().completed(call.connected - call.started, handler.getQueueMillis(), handler.getRunMillis(),
+					System.currentTimeMillis() - call.started);
+		} catch (IOException e) {
+			if (!attempt.aborted) {
+				ClientMetrics.get().failed();
+				call.endpoint.failed(CIRCUIT_FAILURES, CIRCUIT_COOL_DOWN);
+				failed.add(call.endpoint);
 			}
-			throw new RuntimeException("Unable to send request to " + connection.getURL() + ": " + error);
+			throw e;
+		} finally {
+			endpoints.finished(call.endpoint, System.currentTimeMillis() - call.started);
 		}
 	}
 
-	private HttpURLConnection getUrl(String methodName, String httpMethod) {
-		int count = 0;
-		while (count < endpoints.size() * 2) {
-			String ep = endpoints.get(currentEndpoint++ % endpoints.size());
-			if (!ep.endsWith("/")) {
-				ep = ep + "/";
+	/**
+	 * Run a single test, and if it takes longer than usual send it to another endpoint as well, using the results of
+	 * whichever finishes first. How long is usual is given by the junit.remote.hedge percentile of the latency of the
+	 * endpoint, but at least twice the duration of the test in the previous run, and at least
+	 * junit.remote.hedge.minDelay. The results are held back until the winner is known.
+	 */
+	private void runHedged(String params, ResultHandler handler, long expected)
+			throws Throwable {
+		CompletionService<Attempt> completion = new ExecutorCompletionService<Attempt>(HEDGE_EXECUTOR);
+		Attempt primary = new Attempt(params, Collections.<Endpoint>emptyList());
+		Attempt hedge = null;
+		completion.submit(primary);
+		try {
+			Endpoint endpoint = primary.awaitEndpoint();
+			long delay = endpoint == null ? -1 : endpoint.getLatencyPercentile(HEDGE_PERCENTILE);
+			Future<Attempt> done;
+			if (delay < 0) {
+				done = completion.take();
+			} else {
+				delay = Math.max(Math.max(delay, 2 * expected), HEDGE_MIN_DELAY);
+				done = completion.poll(Math.max(0, delay - primary.getElapsed()), TimeUnit.MILLISECONDS);
+				if (done == null) {
+					log.debug("{} is taking more than {} ms on {}, sending it to another host as well", new Object[] { params, delay, endpoint });
+					hedge = new Attempt(params, Collections.singletonList(endpoint));
+					completion.submit(hedge);
+					ClientMetrics.get().hedged();
+					done = completion.take();
+				}
 			}
+
+			Attempt winner;
 			try {
+				winner = done.get();
+			} catch (ExecutionException e) {
+				if (hedge == null) {
+					throw e.getCause();
+				}
+				try {
+					winner = completion.take().get();
+				} catch (ExecutionException e2) {
+					throw e.getCause();
+				}
+			}
+			winner.recorder.replay(handler);
+		} finally {
+			primary.abort();
+			if (hedge != null) {
+				hedge.abort();
+			}
+		}
+	}
+
+	private void handleError(HttpResponse response)
+			throws IOException {
+		if (response.getStatus() != 200) {
+			InputStream err = response.getBody();
+			String error = Utils.toString(err);
+			err.close();
+			if (error.length() == 0) {
+				error = response.getMessage();
+			}
+			throw new RuntimeException("Unable to send request for " + testClass.getName() + ": " + error);
+		}
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
-				HttpURLConnection connection = (HttpURLConnection) new URL(
-						ep + testClass.getName() + "?method=" + methodName + "&runner=" +
-								remoteRunnerClass.getName()).openConnection();
-				connection.setReadTimeout(120000);
-				connection.setAllowUserInteraction(false);
-				connection.setUseCaches(false);
-				connection.setRequestMethod(httpMethod);
-				connection.setRequestProperty("Connection", "close");
-				connection.connect();
-
-				return connection;
-			} catch (MalformedURLException e) {
+	/**
+	 * Send a request to an endpoint chosen by the {@link EndpointSelector}, waiting until one has room for it. Endpoints
+	 * which are busy (503) or down are skipped, and once all of them have been busy the request waits as long as the
+	 * server asked before trying again.
+	 */
+	private Call request(String params, List<Endpoint> failed)
+			throws IOException {
+		List<Endpoint> down = new ArrayList<Endpoint>(failed);
+		List<Endpoint> busy = new ArrayList<Endpoint>();
+		List<Endpoint> excluded = new ArrayList<Endpoint>();
+		long retryAfter = 0;
+		long busyUntil = System.currentTimeMillis() + BUSY_TIMEOUT;
+		while (true) {
+			Endpoint endpoint;
+			try {
+				excluded.clear();
+				excluded.addAll(down);
+				excluded.addAll(busy);
+				excluded.addAll(getDeadEndpoints());
+				endpoint = endpoints.acquire(excluded);
+				if (endpoint == null) {
+					if (busy.isEmpty()) {
+						throw new RuntimeException("No hosts available");
+					}
+					if (System.currentTimeMillis() > busyUntil) {
+						throw new RuntimeException("All hosts busy");
+					}
+					Thread.sleep(retryAfter);
+					busy.clear();
+					retryAfter = 0;
+					continue;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for a host", e);
+			}
+
+			long started = System.currentTimeMillis();
+			String id = UUID.randomUUID().toString();
+			try {
+				byte[] body = (params + "&runner=" + encode(remoteRunnerClass.getName()) + (RESULT_CACHE ? "" : "&cache=false")
+						+ (timeout > 0 ? "&timeout=" + timeout : "")).getBytes("UTF-8");
+				HttpResponse response = ConnectionPool.get().execute(new URI(endpoint.getUrl() + testClass.getName() + "?id=" + id),
+						"POST", "application/x-www-form-urlencoded", body, readTimeout);
+				if (response.getStatus() != 503) {
+					return new Call(endpoint, response, id, started, System.currentTimeMillis());
+				}
+				endpoints.abandoned(endpoint);
+				endpoint.rejected();
+				response.getBody().close();
+				log.debug("Host {} is busy", endpoint);
+				busy.add(endpoint);
+				retryAfter = Math.max(retryAfter, getRetryAfter(response));
+			} catch (URISyntaxException e) {
+				endpoints.abandoned(endpoint);
 				throw new RuntimeException("Unable to create remote url", e);
 			} catch (ConnectException e) {
-				log.warn("Skipping host {}", ep);
-				count++;
+				endpoints.abandoned(endpoint);
+				endpoint.unreachable();
+				ClientMetrics.get().failed();
+				log.warn("Skipping host {}", endpoint);
+				EndpointHealth.get().markDown(endpoint.getUrl());
+				down.add(endpoint);
 			} catch (IOException e) {
-				throw new RuntimeException("Unable to connect", e);
+				endpoints.abandoned(endpoint);
+				ClientMetrics.get().failed();
+				endpoint.failed(CIRCUIT_FAILURES, CIRCUIT_COOL_DOWN);
+				failed.add(endpoint);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * The endpoints known to be down. Endpoints without a recent probe are probed first, all at the same time.
+	 */
+	private static List<Endpoint> getDeadEndpoints() {
+		List<String> urls = new ArrayList<String>();
+		for (Endpoint endpoint : endpoints.getEndpoints()) {
+			urls.add(endpoint.getUrl());
+		}
+		List<Boolean> up = EndpointHealth.get().check(urls);
+		List<Endpoint> dead = new ArrayList<Endpoint>();
+		for (int i = 0; i < up.size(); i++) {
+			if (!up.get(i)) {
+				dead.add(endpoints.getEndpoints().get(i));
+			}
+		}
+		return dead;
+	}
+
+	/**
+	 * Create the endpoints from a comma separated list of urls. Unless a concurrency is given, each endpoint runs as
+	 * many tests at the same time as the number of times it is listed.
+	 */
+	private static EndpointPool createEndpoints(String urls, int concurrency, EndpointSelector selector) {
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		for (String e : urls.split(",")) {
+			if (e.trim().equals("")) { continue; }
+			String url = Endpoint.normalize(e.trim());
+			Integer count = counts.get(url);
+			counts.put(url, count == null ? 1 : count + 1);
+		}
+		List<Endpoint> list = new ArrayList<Endpoint>();
+		for (Map.Entry<String, Integer> e : counts.entrySet()) {
+			list.add(new Endpoint(e.getKey(), concurrency > 0 ? concurrency : e.getValue()));
+		}
+		return new EndpointPool(list, selector);
+	}
+
+	/**
+	 * Tests wait for an endpoint in {@link EndpointPool#acquire(java.util.Collection)}, so with virtual threads
+	 * (Java 21 and later) every test gets its own thread. Otherwise a pool of platform threads as large as the
+	 * capacity of all endpoints is used. Set junit.remote.virtualThreads=false to always use the pool.
+	 */
+	private static ExecutorService createExecutor(int capacity) {
+		if (!"false".equals(System.getProperty("junit.remote.virtualThreads"))) {
+			try {
+				Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				ExecutorService executor = (ExecutorService) m.invoke(null);
+				log.debug("Sending tests from virtual threads");
+				return executor;
+			} catch (NoSuchMethodException e) {
+				// Before Java 21
+			} catch (Exception e) {
+				log.debug("Unable to create virtual thread executor: {}", e.toString());
 			}
 		}
-		throw new RuntimeException("No hosts available");
+		return Executors.newFixedThreadPool(capacity);
+	}
+
+	private static EndpointSelector createSelector(String name) {
+		if ("roundRobin".equals(name)) {
+			return new EndpointSelector.RoundRobin();
+		} else if ("leastOutstanding".equals(name)) {
+			return new EndpointSelector.LeastOutstanding();
+		} else if ("latency".equals(name)) {
+			return new EndpointSelector.LatencyWeighted();
+		}
+		try {
+			return (EndpointSelector) Class.forName(name).getConstructor().newInstance();
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to create endpoint selector " + name, e);
+		}
+	}
+
+	private static long getRetryAfter(HttpResponse response) {
+		String retryAfter = response.getHeader("retry-after");
+		try {
+			return retryAfter == null ? 1000 : Long.parseLong(retryAfter) * 1000;
+		} catch (NumberFormatException e) {
+			return 1000;
+		}
+	}
+
+	/**
+	 * A response being read from an endpoint.
+	 */
+	private static class Call {
+		final Endpoint endpoint;
+		final HttpResponse response;
+		/**
+		 * Identifies the request to the server, so it can be cancelled.
+		 */
+		final String id;
+		final long started;
+		final long connected;
+		volatile boolean done;
+
+		Call(Endpoint endpoint, HttpResponse response, String id, long started, long connected) {
+			this.endpoint = endpoint;
+			this.response = response;
+			this.id = id;
+			this.started = started;
+			this.connected = connected;
+		}
+	}
+
+	/**
+	 * One try at running tests, possibly retried on several endpoints, which can be aborted from another thread.
+	 */
+	private class Attempt
+			implements Callable<Attempt>, FailFast.Cancellable {
+		final String params;
+		final List<Endpoint> excluded;
+		final RecordingHandler recorder = new RecordingHandler();
+		final long started = System.currentTimeMillis();
+		private final CountDownLatch dispatched = new CountDownLatch(1);
+		private volatile Call call;
+		volatile boolean aborted;
+		/**
+		 * Whether the attempt was aborted by junit.remote.failFast, rather than because another attempt won.
+		 */
+		volatile boolean cancelled;
+
+		Attempt(String params, List<Endpoint> excluded) {
+			this.params = params;
+			this.excluded = excluded;
+		}
+
+		@Override
+		public Attempt call()
+				throws Exception {
+			try {
+				run(params, recorder, this);
+				return this;
+			} catch (Exception e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable t) {
+				throw new RuntimeException(t);
+			} finally {
+				dispatched.countDown();
+			}
+		}
+
+		void setCall(Call call) {
+			this.call = call;
+			dispatched.countDown();
+			if (aborted) {
+				call.response.abort();
+				sendCancel(call);
+			}
+		}
+
+		/**
+		 * Wait until the first request has been sent.
+		 *
+		 * @return the endpoint it was sent to, or null if it could not be sent
+		 */
+		Endpoint awaitEndpoint()
+				throws InterruptedException {
+			dispatched.await();
+			Call c = call;
+			return c == null ? null : c.endpoint;
+		}
+
+		long getElapsed() {
+			return System.currentTimeMillis() - started;
+		}
+
+		/**
+		 * Stop reading the response, closing the connection, and ask the server to stop the tests if they are still
+		 * running.
+		 */
+		void abort() {
+			aborted = true;
+			Call c = call;
+			if (c != null) {
+				c.response.abort();
+				if (!c.done) {
+					sendCancel(c);
+				}
+			}
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			abort();
+		}
+	}
+
+	/**
+	 * Passes results on, noting whether the server has reported anything which shows the test has started, and the
+	 * timing it reported.
+	 */
+	private static class TrackingHandler
+			implements ResultHandler {
+		private final ResultHandler delegate;
+		private boolean started;
+		private long queueMillis = -1;
+		private long runMillis = -1;
+
+		TrackingHandler(ResultHandler delegate) {
+			this.delegate = delegate;
+		}
+
+		boolean isStarted() {
+			return started;
+		}
+
+		void setStarted() {
+			started = true;
+		}
+
+		long getQueueMillis() {
+			return queueMillis;
+		}
+
+		long getRunMillis() {
+			return runMillis;
+		}
+
+		@Override
+		public void testStarted(String methodName) {
+			started = true;
+			delegate.testStarted(methodName);
+		}
+
+		@Override
+		public void testFinished(String methodName) {
+			started = true;
+			delegate.testFinished(methodName);
+		}
+
+		@Override
+		public void testFailure(String methodName, Throwable t) {
+			started = true;
+			delegate.testFailure(methodName, t);
+		}
+
+		@Override
+		public void testAssumptionFailure(String methodName, Throwable t) {
+			started = true;
+			delegate.testAssumptionFailure(methodName, t);
+		}
+
+		@Override
+		public void testIgnored(String methodName) {
+			started = true;
+			delegate.testIgnored(methodName);
+		}
+
+		@Override
+		public void testProfile(String methodName, TestProfile profile) {
+			started = true;
+			delegate.testProfile(methodName, profile);
+		}
+
+		@Override
+		public void timing(long queueMillis, long runMillis) {
+			this.queueMillis = queueMillis;
+			this.runMillis = runMillis;
+			delegate.timing(queueMillis, runMillis);
+		}
+
+		/**
+		 * Output counts as started, as class level output, such as from a static initializer or @BeforeClass, would
+		 * be printed twice if the request was sent again.
+		 */
+		@Override
+		public void output(boolean err, byte[] b, int off, int len) {
+			started = true;
+			delegate.output(err, b, off, len);
+		}
+	}
+
+	/**
+	 * Writes remote output to the local System.out and System.err, records the profiles of the tests, and ignores all
+	 * other events.
+	 */
+	private class OutputHandler
+			implements ResultHandler {
+		@Override
+		public void testStarted(String methodName) {
+		}
+
+		@Override
+		public void testFinished(String methodName) {
+		}
+
+		@Override
+		public void testFailure(String methodName, Throwable t) {
+		}
+
+		@Override
+		public void testAssumptionFailure(String methodName, Throwable t) {
+		}
+
+		@Override
+		public void testIgnored(String methodName) {
+		}
+
+		@Override
+		public void testProfile(String methodName, TestProfile profile) {
+			TestProfiles.get().record(testClass, methodName, profile);
+		}
+
+		@Override
+		public void timing(long queueMillis, long runMillis) {
+			log.debug("Remote run waited {} ms for a worker and ran in {} ms", queueMillis, runMillis);
+		}
+
+		@Override
+		public void output(boolean err, byte[] b, int off, int len) {
+			(err ? System.err : System.out).write(b, off, len);
+		}
 	}
 
 	private static class SemaphoreDelegate
 			implements Runnable {
 		private final Runnable childStatement;
+		private final Semaphore semaphore;
 
-		SemaphoreDelegate(Runnable childStatement) {this.childStatement = childStatement;}
+		SemaphoreDelegate(Runnable childStatement, Semaphore semaphore) {
+			this.childStatement = childStatement;
+			this.semaphore = semaphore;
+		}
 
 		@Override
 		public void run() {
 			try {
 				childStatement.run();
 			} finally {
-				SEMAPHORE.release();
+				semaphore.release();
 			}
 		}
 	}
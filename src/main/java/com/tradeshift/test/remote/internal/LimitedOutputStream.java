@@ -0,0 +1,91 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Drops output once a {@link Limit} shared between the streams of a test run has been reached, writing a single
+ * notice in place of the dropped output.
+ */
+public class LimitedOutputStream extends OutputStream {
+
+	private final OutputStream delegate;
+	private final Limit limit;
+	private final Object lock;
+
+	/**
+	 * @param lock Object to synchronize writes on
+	 */
+	public LimitedOutputStream(OutputStream delegate, Limit limit, Object lock) {
+		this.delegate = delegate;
+		this.limit = limit;
+		this.lock = lock;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		synchronized (lock) {
+			if (limit.allow(1) == 1) {
+				delegate.write(b);
+			} else {
+				truncate();
+			}
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		synchronized (lock) {
+			int allowed = limit.allow(len);
+			if (allowed > 0) {
+				delegate.write(b, off, allowed);
+			}
+			if (allowed < len) {
+				truncate();
+			}
+		}
+	}
+
+	private void truncate() throws IOException {
+		if (limit.truncate()) {
+			delegate.write(("\n[Output truncated after " + limit.max + " bytes]\n").getBytes());
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		synchronized (lock) {
+			delegate.flush();
+		}
+	}
+
+	/**
+	 * Maximum number of bytes to write. A maximum of 0 or less means no limit.
+	 */
+	public static class Limit {
+		private final long max;
+		private long written;
+		private boolean truncated;
+
+		public Limit(long max) {
+			this.max = max;
+		}
+
+		int allow(int len) {
+			if (max <= 0) {
+				return len;
+			}
+			int allowed = (int) Math.min(len, max - written);
+			written += allowed;
+			return allowed;
+		}
+
+		boolean truncate() {
+			if (truncated) {
+				return false;
+			}
+			truncated = true;
+			return true;
+		}
+	}
+}
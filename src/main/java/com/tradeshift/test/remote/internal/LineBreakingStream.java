@@ -23,7 +23,39 @@ public class LineBreakingStream extends OutputStream {
         delegate.write(b);
         if (b == '\n' || b == '\r') {
             newline = true;
-            delegate.flush();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            byte c = b[i];
+            if (c == '\n' || c == '\r') {
+                if (i > start && newline) {
+                    delegate.write(prefix);
+                }
+                delegate.write(b, start, i + 1 - start);
+                start = i + 1;
+                newline = true;
+            }
+        }
+        if (start < end) {
+            if (newline) {
+                delegate.write(prefix);
+                newline = false;
+            }
+            delegate.write(b, start, end - start);
+        }
+    }
+
+    /**
+     * Terminate the current line, if anything has been written to it.
+     */
+    public void endLine() throws IOException {
+        if (!newline) {
+            write('\n');
         }
     }
     
@@ -0,0 +1,64 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to a stream and the time spent writing and flushing them, which for a response is the time
+ * spent waiting for the client to take the results.
+ */
+public class MeteredOutputStream extends OutputStream {
+
+	private final OutputStream delegate;
+	private long bytes;
+	private long nanos;
+
+	public MeteredOutputStream(OutputStream delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		long start = System.nanoTime();
+		try {
+			delegate.write(b);
+			bytes++;
+		} finally {
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		long start = System.nanoTime();
+		try {
+			delegate.write(b, off, len);
+			bytes += len;
+		} finally {
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		long start = System.nanoTime();
+		try {
+			delegate.flush();
+		} finally {
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getMillis() {
+		return nanos / 1000000;
+	}
+}
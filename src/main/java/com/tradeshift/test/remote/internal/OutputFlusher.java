@@ -0,0 +1,60 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically sends the output buffered by running {@link ResultWriter}s, so output of a quiet test is not held back
+ * until its buffer fills up or it finishes.
+ */
+public class OutputFlusher {
+
+	private static final Logger log = LoggerFactory.getLogger(OutputFlusher.class);
+
+	private final Set<ResultWriter> writers = Collections.newSetFromMap(new ConcurrentHashMap<ResultWriter, Boolean>());
+
+	public OutputFlusher(long interval) {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "output-flusher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flushAll();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	public void register(ResultWriter writer) {
+		writers.add(writer);
+	}
+
+	public void unregister(ResultWriter writer) {
+		writers.remove(writer);
+	}
+
+	private void flushAll() {
+		for (ResultWriter writer : writers) {
+			try {
+				writer.flush();
+			} catch (IOException e) {
+				log.debug("Unable to flush output, client is gone: {}", e.toString());
+				writers.remove(writer);
+			}
+		}
+	}
+}
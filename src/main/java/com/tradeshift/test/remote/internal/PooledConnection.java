@@ -0,0 +1,166 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A single keep-alive connection to a remote server, owned by a {@link ConnectionPool}.
+ */
+public class PooledConnection {
+
+	private final ConnectionPool pool;
+	private final ConnectionPool.Endpoint endpoint;
+	private final Socket socket;
+	private final InputStream in;
+	private final OutputStream out;
+	private long lastUsed = System.currentTimeMillis();
+	private boolean reused;
+	private boolean leased = true;
+	private boolean responseStarted;
+
+	PooledConnection(ConnectionPool pool, ConnectionPool.Endpoint endpoint, Socket socket)
+			throws IOException {
+		this.pool = pool;
+		this.endpoint = endpoint;
+		this.socket = socket;
+		this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+		this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+	}
+
+	HttpResponse execute(String method, URI uri, String contentType, byte[] body)
+			throws IOException {
+		responseStarted = false;
+		String path = uri.getRawPath();
+		if (uri.getRawQuery() != null) {
+			path += "?" + uri.getRawQuery();
+		}
+		StringBuilder request = new StringBuilder();
+		request.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+		request.append("Host: ").append(uri.getHost()).append(':').append(ConnectionPool.getPort(uri)).append("\r\n");
+		if (contentType != null) {
+			request.append("Content-Type: ").append(contentType).append("\r\n");
+		}
+		request.append("Content-Length: ").append(body == null ? 0 : body.length).append("\r\n");
+		request.append("\r\n");
+		out.write(request.toString().getBytes("ISO-8859-1"));
+		if (body != null) {
+			out.write(body);
+		}
+		out.flush();
+
+		String statusLine = readLine();
+		responseStarted = true;
+		if (!statusLine.startsWith("HTTP/")) {
+			throw new IOException("Invalid response from " + uri + ": " + statusLine);
+		}
+		String[] status = statusLine.split(" ", 3);
+		boolean keepAlive = !statusLine.startsWith("HTTP/1.0");
+
+		Map<String, String> headers = new HashMap<String, String>();
+		String line;
+		while ((line = readLine()).length() > 0) {
+			int colon = line.indexOf(':');
+			if (colon > 0) {
+				headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+			}
+		}
+		String connection = headers.get("connection");
+		if (connection != null) {
+			keepAlive = !"close".equalsIgnoreCase(connection);
+		}
+		return new HttpResponse(this, Integer.parseInt(status[1]), status.length > 2 ? status[2] : "", headers, in, keepAlive);
+	}
+
+	private String readLine() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1) {
+				throw new EOFException("Connection closed by server");
+			}
+			if (b != '\r') {
+				sb.append((char) b);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Check that the server has not closed the connection while it was idle.
+	 */
+	boolean isHealthy() {
+		if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+			return false;
+		}
+		try {
+			if (in.available() > 0) {
+				return false;
+			}
+			socket.setSoTimeout(1);
+			in.mark(1);
+			int b = in.read();
+			if (b == -1) {
+				return false;
+			}
+			in.reset();
+			return false;
+		} catch (SocketTimeoutException e) {
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	void setReadTimeout(int readTimeout) throws IOException {
+		socket.setSoTimeout(readTimeout);
+	}
+
+	void reuse() {
+		reused = true;
+		leased = true;
+	}
+
+	boolean isReused() {
+		return reused;
+	}
+
+	boolean isResponseStarted() {
+		return responseStarted;
+	}
+
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	void release(boolean reusable) {
+		if (!leased) {
+			return;
+		}
+		leased = false;
+		lastUsed = System.currentTimeMillis();
+		pool.release(this, endpoint, reusable);
+	}
+
+	/**
+	 * Close the connection and give its slot back to the pool.
+	 */
+	public void discard() {
+		release(false);
+	}
+
+	void close() {
+		try {
+			socket.close();
+		} catch (IOException ignore) {
+		}
+	}
+}
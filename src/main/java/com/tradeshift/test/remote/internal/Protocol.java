@@ -0,0 +1,134 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+/**
+ * Constants of the binary result protocol.
+ *
+ * The client asks for the protocol by sending the version in the protocol parameter. Servers supporting it answer
+ * with the {@link #CONTENT_TYPE} content type, older servers answer with the text protocol.
+ *
+ * A response is a sequence of frames, each consisting of a one byte frame type, a four byte payload length and the
+ * payload. Strings are encoded as a four byte length followed by UTF-8 bytes, with a length of -1 for null. The first
+ * frame is always {@link #HELLO}, and the last either {@link #DONE} or {@link #ERROR}. Unknown frame types are skipped.
+ */
+public class Protocol {
+
+	/**
+	 * The text protocol.
+	 */
+	public static final int TEXT = 1;
+
+	/**
+	 * The binary protocol.
+	 */
+	public static final int BINARY = 2;
+
+	public static final String CONTENT_TYPE = "application/x-junit-remote";
+
+	/**
+	 * Output is buffered in chunks of this size. A chunk is sent when it is full, before a test event, or when the
+	 * server flushes output periodically.
+	 */
+	public static final int CHUNK_SIZE = 8192;
+
+	/** Payload: protocol version */
+	public static final int HELLO = 0x01;
+	/** Payload: method name */
+	public static final int TEST_STARTED = 0x10;
+	/** Payload: method name */
+	public static final int TEST_FINISHED = 0x11;
+	/** Payload: method name, throwable */
+	public static final int TEST_FAILURE = 0x12;
+	/** Payload: method name, throwable */
+	public static final int TEST_ASSUMPTION_FAILURE = 0x13;
+	/** Payload: method name */
+	public static final int TEST_IGNORED = 0x14;
+	/**
+	 * Payload: method name, milliseconds running (long), milliseconds of CPU (long), bytes allocated (long),
+	 * milliseconds of garbage collection (long), each -1 if not known, and whether CPU and allocation are partial
+	 * (boolean). Sent before {@link #TEST_FINISHED}.
+	 */
+	public static final int TEST_PROFILE = 0x15;
+	/** Payload: raw bytes */
+	public static final int STDOUT = 0x20;
+	/** Payload: raw bytes */
+	public static final int STDERR = 0x21;
+	/** No payload */
+	public static final int DONE = 0x30;
+	/** Payload: message */
+	public static final int ERROR = 0x31;
+	/** Payload: milliseconds waiting for a worker (long), milliseconds running (long) */
+	public static final int TIMING = 0x40;
+
+	/**
+	 * Java serialized exceptions larger than this are only sent with their class name, message and stack trace.
+	 */
+	static final int MAX_SERIALIZED = 1024 * 1024;
+
+	/**
+	 * @return true if a response of the given content type is in the binary protocol, false if it is in the text
+	 *         protocol sent by older servers
+	 */
+	public static boolean isBinary(String contentType) {
+		return contentType != null && contentType.startsWith(CONTENT_TYPE);
+	}
+
+	public static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] b = s.getBytes("UTF-8");
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+	/**
+	 * Write a throwable as its class name, message, stack trace and cause, followed by the Java serialized form if it
+	 * can be serialized. The client uses the serialized form if it has all the classes needed.
+	 */
+	public static void writeThrowable(DataOutputStream out, Throwable t) throws IOException {
+		writeThrowableStructure(out, t);
+
+		byte[] serialized = null;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bytes);
+			oos.writeObject(t);
+			oos.close();
+			if (bytes.size() <= MAX_SERIALIZED) {
+				serialized = bytes.toByteArray();
+			}
+		} catch (IOException e) {
+			// Not serializable, the structure will have to do
+		}
+		if (serialized == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(serialized.length);
+			out.write(serialized);
+		}
+	}
+
+	private static void writeThrowableStructure(DataOutputStream out, Throwable t) throws IOException {
+		writeString(out, t.getClass().getName());
+		writeString(out, t.getMessage());
+		StackTraceElement[] trace = t.getStackTrace();
+		out.writeInt(trace.length);
+		for (StackTraceElement e : trace) {
+			writeString(out, e.getClassName());
+			writeString(out, e.getMethodName());
+			writeString(out, e.getFileName());
+			out.writeInt(e.getLineNumber());
+		}
+		Throwable cause = t.getCause();
+		out.writeBoolean(cause != null && cause != t);
+		if (cause != null && cause != t) {
+			writeThrowableStructure(out, cause);
+		}
+	}
+}
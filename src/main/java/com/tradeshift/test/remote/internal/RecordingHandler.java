@@ -0,0 +1,115 @@
+package com.tradeshift.test.remote.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the results read from a server, so they can be passed on later, once it is known they should be used.
+ */
+public class RecordingHandler implements ResultHandler {
+
+	private static final int STARTED = 0;
+	private static final int FINISHED = 1;
+	private static final int FAILURE = 2;
+	private static final int ASSUMPTION_FAILURE = 3;
+	private static final int IGNORED = 4;
+	private static final int TIMING = 5;
+	private static final int STDOUT = 6;
+	private static final int STDERR = 7;
+	private static final int PROFILE = 8;
+
+	private final List<Event> events = new ArrayList<Event>();
+
+	@Override
+	public synchronized void testStarted(String methodName) {
+		events.add(new Event(STARTED, methodName, null, null));
+	}
+
+	@Override
+	public synchronized void testFinished(String methodName) {
+		events.add(new Event(FINISHED, methodName, null, null));
+	}
+
+	@Override
+	public synchronized void testFailure(String methodName, Throwable t) {
+		events.add(new Event(FAILURE, methodName, t, null));
+	}
+
+	@Override
+	public synchronized void testAssumptionFailure(String methodName, Throwable t) {
+		events.add(new Event(ASSUMPTION_FAILURE, methodName, t, null));
+	}
+
+	@Override
+	public synchronized void testIgnored(String methodName) {
+		events.add(new Event(IGNORED, methodName, null, null));
+	}
+
+	@Override
+	public synchronized void testProfile(String methodName, TestProfile profile) {
+		events.add(new Event(PROFILE, methodName, null, profile));
+	}
+
+	@Override
+	public synchronized void timing(long queueMillis, long runMillis) {
+		events.add(new Event(TIMING, null, null, new long[] { queueMillis, runMillis }));
+	}
+
+	@Override
+	public synchronized void output(boolean err, byte[] b, int off, int len) {
+		byte[] copy = new byte[len];
+		System.arraycopy(b, off, copy, 0, len);
+		events.add(new Event(err ? STDERR : STDOUT, null, null, copy));
+	}
+
+	/**
+	 * Pass the recorded results on, in the order they were read.
+	 */
+	public synchronized void replay(ResultHandler handler) {
+		for (Event event : events) {
+			switch (event.type) {
+			case STARTED:
+				handler.testStarted(event.methodName);
+				break;
+			case FINISHED:
+				handler.testFinished(event.methodName);
+				break;
+			case FAILURE:
+				handler.testFailure(event.methodName, event.throwable);
+				break;
+			case ASSUMPTION_FAILURE:
+				handler.testAssumptionFailure(event.methodName, event.throwable);
+				break;
+			case IGNORED:
+				handler.testIgnored(event.methodName);
+				break;
+			case PROFILE:
+				handler.testProfile(event.methodName, (TestProfile) event.data);
+				break;
+			case TIMING:
+				long[] timing = (long[]) event.data;
+				handler.timing(timing[0], timing[1]);
+				break;
+			case STDOUT:
+			case STDERR:
+				byte[] b = (byte[]) event.data;
+				handler.output(event.type == STDERR, b, 0, b.length);
+				break;
+			}
+		}
+	}
+
+	private static class Event {
+		final int type;
+		final String methodName;
+		final Throwable throwable;
+		final Object data;
+
+		Event(int type, String methodName, Throwable throwable, Object data) {
+			this.type = type;
+			this.methodName = methodName;
+			this.throwable = throwable;
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.tradeshift.test.remote.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+
+/**
+ * Records the events of a runner, so they can be passed on to another notifier later in one piece. Used to report
+ * classes running at the same time without mixing up their results.
+ */
+public class RecordingListener extends RunListener {
+
+	private static final int STARTED = 0;
+	private static final int FINISHED = 1;
+	private static final int FAILURE = 2;
+	private static final int ASSUMPTION_FAILURE = 3;
+	private static final int IGNORED = 4;
+
+	private final List<Event> events = new ArrayList<Event>();
+
+	@Override
+	public synchronized void testStarted(Description description) {
+		events.add(new Event(STARTED, description, null));
+	}
+
+	@Override
+	public synchronized void testFinished(Description description) {
+		events.add(new Event(FINISHED, description, null));
+	}
+
+	@Override
+	public synchronized void testFailure(Failure failure) {
+		events.add(new Event(FAILURE, failure.getDescription(), failure));
+	}
+
+	@Override
+	public synchronized void testAssumptionFailure(Failure failure) {
+		events.add(new Event(ASSUMPTION_FAILURE, failure.getDescription(), failure));
+	}
+
+	@Override
+	public synchronized void testIgnored(Description description) {
+		events.add(new Event(IGNORED, description, null));
+	}
+
+	/**
+	 * Fire the recorded events on the notifier, in the order they happened, and forget them.
+	 */
+	public synchronized void replay(RunNotifier notifier) {
+		for (Event event : events) {
+			switch (event.type) {
+			case STARTED:
+				notifier.fireTestStarted(event.description);
+				break;
+			case FINISHED:
+				notifier.fireTestFinished(event.description);
+				break;
+			case FAILURE:
+				notifier.fireTestFailure(event.failure);
+				break;
+			case ASSUMPTION_FAILURE:
+				notifier.fireTestAssumptionFailed(event.failure);
+				break;
+			case IGNORED:
+				notifier.fireTestIgnored(event.description);
+				break;
+			}
+		}
+		events.clear();
+	}
+
+	private static class Event {
+		final int type;
+		final Description description;
+		final Failure failure;
+
+		Event(int type, Description description, Failure failure) {
+			this.type = type;
+			this.description = description;
+			this.failure = failure;
+		}
+	}
+}
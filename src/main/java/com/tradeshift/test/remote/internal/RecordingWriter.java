@@ -0,0 +1,255 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+/**
+ * Passes the results of a run on to another writer, keeping a copy of the events and output so the run can be
+ * replayed to another client later, see {@link #getRecording()}.
+ */
+public class RecordingWriter implements ResultWriter {
+
+	private static final int STARTED = 0;
+	private static final int FINISHED = 1;
+	private static final int ASSUMPTION_FAILURE = 2;
+	private static final int IGNORED = 3;
+	private static final int STDOUT = 4;
+	private static final int STDERR = 5;
+
+	private final ResultWriter delegate;
+	private final long maxOutput;
+	private final List<Event> events = new ArrayList<Event>();
+	private final OutputStream out;
+	private final OutputStream err;
+	private long output;
+	private boolean failed;
+
+	/**
+	 * @param maxOutput The run is not kept if the tests write more output than this
+	 */
+	public RecordingWriter(ResultWriter delegate, long maxOutput) {
+		this.delegate = delegate;
+		this.maxOutput = maxOutput;
+		this.out = new RecordingStream(delegate.getOut(), STDOUT);
+		this.err = new RecordingStream(delegate.getErr(), STDERR);
+	}
+
+	@Override
+	public OutputStream getOut() {
+		return out;
+	}
+
+	@Override
+	public OutputStream getErr() {
+		return err;
+	}
+
+	@Override
+	public void testStarted(Description description) throws IOException {
+		record(STARTED, description, null);
+		delegate.testStarted(description);
+	}
+
+	@Override
+	public void testFinished(Description description) throws IOException {
+		record(FINISHED, description, null);
+		delegate.testFinished(description);
+	}
+
+	@Override
+	public void testFailure(Failure failure) throws IOException {
+		discard();
+		delegate.testFailure(failure);
+	}
+
+	@Override
+	public void testAssumptionFailure(Failure failure) throws IOException {
+		record(ASSUMPTION_FAILURE, failure.getDescription(), failure);
+		delegate.testAssumptionFailure(failure);
+	}
+
+	@Override
+	public void testIgnored(Description description) throws IOException {
+		record(IGNORED, description, null);
+		delegate.testIgnored(description);
+	}
+
+	/**
+	 * Not recorded, as a replayed run costs nothing.
+	 */
+	@Override
+	public void testProfile(Description description, TestProfile profile) throws IOException {
+		delegate.testProfile(description, profile);
+	}
+
+	@Override
+	public void timing(long queueMillis, long runMillis) throws IOException {
+		delegate.timing(queueMillis, runMillis);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		delegate.flush();
+	}
+
+	@Override
+	public void done() throws IOException {
+		delegate.done();
+	}
+
+	@Override
+	public void error(String message) throws IOException {
+		discard();
+		delegate.error(message);
+	}
+
+	/**
+	 * Whether the run can be replayed instead of running it again: it completed without failures, and didn't write too
+	 * much output to keep.
+	 */
+	public synchronized boolean isReplayable() {
+		return !failed && output <= maxOutput;
+	}
+
+	/**
+	 * A copy of the recorded events and output, which doesn't refer to the writers of the run, so it can be kept after
+	 * the response has ended.
+	 */
+	public synchronized Recording getRecording() {
+		List<Recording.Event> copy = new ArrayList<Recording.Event>(events.size());
+		for (Event event : events) {
+			copy.add(new Recording.Event(event.type, event.description, event.failure,
+					event.output == null ? null : event.output.toByteArray()));
+		}
+		return new Recording(copy);
+	}
+
+	/**
+	 * The events and output of a run which passed.
+	 */
+	public static class Recording {
+		private final List<Event> events;
+
+		Recording(List<Event> events) {
+			this.events = Collections.unmodifiableList(events);
+		}
+
+		/**
+		 * Write the recorded events and output to another writer, in the order they happened. The run is not ended, so
+		 * the caller can add to it.
+		 */
+		public void replay(ResultWriter writer) throws IOException {
+			for (Event event : events) {
+				switch (event.type) {
+				case STARTED:
+					writer.testStarted(event.description);
+					break;
+				case FINISHED:
+					writer.testFinished(event.description);
+					break;
+				case ASSUMPTION_FAILURE:
+					writer.testAssumptionFailure(event.failure);
+					break;
+				case IGNORED:
+					writer.testIgnored(event.description);
+					break;
+				case STDOUT:
+				case STDERR:
+					(event.type == STDERR ? writer.getErr() : writer.getOut()).write(event.output);
+					break;
+				}
+			}
+		}
+
+		static class Event {
+			final int type;
+			final Description description;
+			final Failure failure;
+			final byte[] output;
+
+			Event(int type, Description description, Failure failure, byte[] output) {
+				this.type = type;
+				this.description = description;
+				this.failure = failure;
+				this.output = output;
+			}
+		}
+	}
+
+	/**
+	 * Stop recording a run which won't be replayed.
+	 */
+	private synchronized void discard() {
+		failed = true;
+		events.clear();
+	}
+
+	private synchronized void record(int type, Description description, Failure failure) {
+		if (!failed) {
+			events.add(new Event(type, description, failure));
+		}
+	}
+
+	/**
+	 * Output is kept until it would take more than the limit, merging consecutive writes to the same stream.
+	 */
+	private synchronized void recordOutput(int type, byte[] b, int off, int len) {
+		output += len;
+		if (failed || output > maxOutput) {
+			return;
+		}
+		Event last = events.isEmpty() ? null : events.get(events.size() - 1);
+		if (last == null || last.type != type) {
+			last = new Event(type, null, null);
+			last.output = new ByteArrayOutputStream();
+			events.add(last);
+		}
+		last.output.write(b, off, len);
+	}
+
+	private class RecordingStream extends OutputStream {
+		private final OutputStream delegate;
+		private final int type;
+
+		RecordingStream(OutputStream delegate, int type) {
+			this.delegate = delegate;
+			this.type = type;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			recordOutput(type, b, off, len);
+			delegate.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			delegate.flush();
+		}
+	}
+
+	private static class Event {
+		final int type;
+		final Description description;
+		final Failure failure;
+		ByteArrayOutputStream output;
+
+		Event(int type, Description description, Failure failure) {
+			this.type = type;
+			this.description = description;
+			this.failure = failure;
+		}
+	}
+}
@@ -4,10 +4,15 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 
+/**
+ * Replacement for System.out and System.err which copies output to the stream of the test running in the current
+ * thread. The redirector is inherited by threads started by the test, and closed for all of them when the test is
+ * done, so tests running concurrently in other threads each get their own output.
+ */
 public class RedirectingStream extends OutputStream {
-    
+
     private final PrintStream delegate;
-    private OutputStream redirector;
+    private final InheritableThreadLocal<Sink> sink = new InheritableThreadLocal<Sink>();
 
     public RedirectingStream(PrintStream delegate) {
         this.delegate = delegate;
@@ -16,14 +21,59 @@ public class RedirectingStream extends OutputStream {
     @Override
     public void write(int b) throws IOException {
         delegate.write(b);
-        if (redirector != null) {
-            redirector.write(b);
+        Sink s = sink.get();
+        if (s != null) {
+            s.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        delegate.write(b, off, len);
+        Sink s = sink.get();
+        if (s != null) {
+            s.write(b, off, len);
         }
     }
-    
+
+    /**
+     * Redirect output written by the current thread, and threads started by it, to the given stream. Pass null to
+     * stop redirecting.
+     */
     public void setRedirector(OutputStream redirector) {
-        this.redirector = redirector;
+        Sink previous = sink.get();
+        if (previous != null && previous.owner == Thread.currentThread()) {
+            previous.close();
+        }
+        if (redirector == null) {
+            sink.remove();
+        } else {
+            sink.set(new Sink(redirector));
+        }
     }
-}
 
+    private static class Sink {
+        private final Thread owner = Thread.currentThread();
+        private OutputStream target;
 
+        Sink(OutputStream target) {
+            this.target = target;
+        }
+
+        synchronized void write(int b) throws IOException {
+            if (target != null) {
+                target.write(b);
+            }
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (target != null) {
+                target.write(b, off, len);
+            }
+        }
+
+        synchronized void close() {
+            target = null;
+        }
+    }
+}
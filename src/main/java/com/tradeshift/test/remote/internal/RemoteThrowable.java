@@ -0,0 +1,29 @@
+package com.tradeshift.test.remote.internal;
+
+/**
+ * Stands in for an exception thrown on the remote server which could not be recreated on the client. It keeps the
+ * class name, message and stack trace of the original.
+ */
+public class RemoteThrowable extends Throwable {
+	private static final long serialVersionUID = 1L;
+
+	private final String className;
+
+	public RemoteThrowable(String className, String message, Throwable cause) {
+		super(message, cause);
+		this.className = className;
+	}
+
+	/**
+	 * The class name of the original exception.
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	@Override
+	public String toString() {
+		String message = getLocalizedMessage();
+		return message != null ? className + ": " + message : className;
+	}
+}
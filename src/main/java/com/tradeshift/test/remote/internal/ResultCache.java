@@ -0,0 +1,143 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the results of passed test runs, so running the same tests again replays them instead of running the tests.
+ *
+ * Runs are kept by test class, methods, runner and the {@link ClassFingerprint} of the test class, so recompiling the
+ * test or a class it uses directly runs it again. Entries are dropped after a time to live, and the least recently
+ * used entries are evicted when there are more than the maximum size.
+ */
+public class ResultCache {
+
+	private static final Logger log = LoggerFactory.getLogger(ResultCache.class);
+
+	private final long ttl;
+	private final Map<String, Entry> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
+
+	/**
+	 * @param ttl Milliseconds to keep a run
+	 */
+	public ResultCache(final int maxSize, long ttl) {
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * The key of a run, or null if the classes can't be read, in which case the run isn't cached.
+	 *
+	 * @param methods The methods to run, or null for all
+	 */
+	public String getKey(Class<?> testClass, String runnerClass, String[] methods) {
+		try {
+			StringBuilder key = new StringBuilder(testClass.getName()).append('#');
+			if (methods != null) {
+				String[] sorted = methods.clone();
+				Arrays.sort(sorted);
+				for (int i = 0; i < sorted.length; i++) {
+					key.append(i > 0 ? "," : "").append(sorted[i]);
+				}
+			}
+			return key.append('@').append(runnerClass).append(':').append(ClassFingerprint.of(testClass)).toString();
+		} catch (IOException e) {
+			log.debug("Not caching results of {}: {}", testClass.getName(), e.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * @return the run kept for the key, or null if there is none or it has expired
+	 */
+	public RecordingWriter.Recording get(String key) {
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null && System.currentTimeMillis() - entry.created > ttl) {
+				entries.remove(key);
+				expirations.incrementAndGet();
+				entry = null;
+			}
+			(entry == null ? misses : hits).incrementAndGet();
+			return entry == null ? null : entry.recording;
+		}
+	}
+
+	/**
+	 * Keep a copy of a run, if it can be replayed. The writer itself isn't kept, as it refers to the response of the
+	 * run.
+	 */
+	public void put(String key, RecordingWriter writer) {
+		if (writer.isReplayable()) {
+			RecordingWriter.Recording recording = writer.getRecording();
+			synchronized (entries) {
+				entries.put(key, new Entry(recording));
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return size() + " entries, " + getHits() + " hits, " + getMisses() + " misses, " + getEvictions()
+				+ " evictions, " + getExpirations() + " expirations";
+	}
+
+	private static class Entry {
+		final RecordingWriter.Recording recording;
+		final long created = System.currentTimeMillis();
+
+		Entry(RecordingWriter.Recording recording) {
+			this.recording = recording;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.tradeshift.test.remote.internal;
+
+/**
+ * Receives the results read from a remote server. Tests are identified by their method name, or the empty string for
+ * events not belonging to a single test.
+ */
+public interface ResultHandler {
+
+	void testStarted(String methodName);
+
+	void testFinished(String methodName);
+
+	void testFailure(String methodName, Throwable t);
+
+	void testAssumptionFailure(String methodName, Throwable t);
+
+	void testIgnored(String methodName);
+
+	/**
+	 * What a test cost the server. Only sent by servers using the binary protocol.
+	 */
+	void testProfile(String methodName, TestProfile profile);
+
+	/**
+	 * How long the run waited for a worker on the server, and how long it took to run. Only sent by servers using the
+	 * binary protocol.
+	 */
+	void timing(long queueMillis, long runMillis);
+
+	/**
+	 * Output written by the tests.
+	 *
+	 * @param err true for System.err, false for System.out
+	 */
+	void output(boolean err, byte[] b, int off, int len);
+}
@@ -0,0 +1,57 @@
+package com.tradeshift.test.remote.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Passes the events of a test run on to a {@link ResultWriter}, with the {@link TestProfile} of each test.
+ */
+public class ResultListener extends RunListener {
+
+	private final ResultWriter writer;
+	private final ConcurrentMap<Description, TestProfile.Probe> probes = new ConcurrentHashMap<Description, TestProfile.Probe>();
+
+	public ResultListener(ResultWriter writer) {
+		this.writer = writer;
+	}
+
+	@Override
+	public void testStarted(Description description) throws Exception {
+		writer.testStarted(description);
+		probes.put(description, TestProfile.start());
+	}
+
+	@Override
+	public void testFinished(Description description) throws Exception {
+		TestProfile.Probe probe = probes.remove(description);
+		if (probe != null) {
+			Test test = description.getAnnotation(Test.class);
+			writer.testProfile(description, probe.stop(test != null && test.timeout() > 0));
+		}
+		writer.testFinished(description);
+	}
+
+	@Override
+	public void testFailure(Failure failure) throws Exception {
+		writer.testFailure(failure);
+	}
+
+	@Override
+	public void testAssumptionFailure(Failure failure) {
+		try {
+			writer.testAssumptionFailure(failure);
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to send result", e);
+		}
+	}
+
+	@Override
+	public void testIgnored(Description description) throws Exception {
+		writer.testIgnored(description);
+	}
+}
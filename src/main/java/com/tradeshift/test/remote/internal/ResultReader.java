@@ -0,0 +1,16 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.InputStream;
+
+/**
+ * Reads the results sent by a {@link ResultWriter}.
+ */
+public interface ResultReader {
+
+	/**
+	 * Read results until the end of the run, passing them on to the handler.
+	 *
+	 * @throws Throwable if the run failed as a whole, or the response could not be read
+	 */
+	void read(InputStream in, ResultHandler handler) throws Throwable;
+}
@@ -0,0 +1,58 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+/**
+ * Writes the results of a remote test run back to the client, in either the text or the binary protocol.
+ */
+public interface ResultWriter {
+
+	/**
+	 * Stream receiving everything written to System.out by the tests.
+	 */
+	OutputStream getOut();
+
+	/**
+	 * Stream receiving everything written to System.err by the tests.
+	 */
+	OutputStream getErr();
+
+	void testStarted(Description description) throws IOException;
+
+	void testFinished(Description description) throws IOException;
+
+	void testFailure(Failure failure) throws IOException;
+
+	void testAssumptionFailure(Failure failure) throws IOException;
+
+	void testIgnored(Description description) throws IOException;
+
+	/**
+	 * Report what a test cost the server, before it is finished.
+	 */
+	void testProfile(Description description, TestProfile profile) throws IOException;
+
+	/**
+	 * Report how long the run waited for a worker, and how long it took to run.
+	 */
+	void timing(long queueMillis, long runMillis) throws IOException;
+
+	/**
+	 * Send any buffered output to the client.
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Signal that the run completed. No more data should be written after this.
+	 */
+	void done() throws IOException;
+
+	/**
+	 * Signal that the run could not be completed.
+	 */
+	void error(String message) throws IOException;
+}
@@ -0,0 +1,175 @@
+package com.tradeshift.test.remote.internal;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+
+/**
+ * Keeps test classes and runner constructors resolved between requests, so a test which is run again does not have
+ * to be looked up by name and reflected on every time. The descriptions of runners are kept as well, as runners such
+ * as Parameterized compute their tests when they are created.
+ *
+ * Entries belong to a class loader generation. {@link #invalidate()} starts a new generation, for example when
+ * classes have been reloaded, and lookups which were under way at that point cannot bring the old classes back.
+ * {@link #reload(ClassLoader)} does the same, and loads classes from another class loader from then on. The least
+ * recently used entries are evicted when there are more than the maximum size.
+ */
+public class RunnerCache {
+
+	private final AtomicInteger generation = new AtomicInteger();
+	private volatile ClassLoader classLoader = RunnerCache.class.getClassLoader();
+	private final Map<String, Object> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public RunnerCache(final int maxSize) {
+		this.entries = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+				if (size() > maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public Class<?> getTestClass(String name) throws ClassNotFoundException {
+		int gen = generation.get();
+		String key = gen + ":" + name;
+		Class<?> testClass = (Class<?>) lookup(key);
+		if (testClass == null) {
+			testClass = Class.forName(name, true, classLoader);
+			store(gen, key, testClass);
+		}
+		return testClass;
+	}
+
+	/**
+	 * Create a runner for the test class, using the constructor taking the test class, or the no-arg constructor if
+	 * the runner doesn't have one.
+	 */
+	public Runner createRunner(String runnerClassName, Class<?> testClass) {
+		int gen = generation.get();
+		String key = gen + ":" + testClass.getName() + ":" + runnerClassName;
+		Constructor<?> c = (Constructor<?>) lookup(key);
+		try {
+			if (c == null) {
+				c = findConstructor(Class.forName(runnerClassName, true, classLoader).asSubclass(Runner.class));
+				store(gen, key, c);
+			}
+			if (c.getParameterTypes().length == 0) {
+				return (Runner) c.newInstance();
+			}
+			return (Runner) c.newInstance(testClass);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException("Unable to create instanceof " + runnerClassName, e.getCause());
+		} catch (Exception e) {
+			throw new RuntimeException("Unable to create instanceof " + runnerClassName, e);
+		}
+	}
+
+	/**
+	 * The description of the runner for the test class, as described by a runner created for it the first time.
+	 */
+	public Description getDescription(String runnerClassName, Class<?> testClass) {
+		int gen = generation.get();
+		String key = gen + ":" + testClass.getName() + ":" + runnerClassName + ":description";
+		Description description = (Description) lookup(key);
+		if (description == null) {
+			description = createRunner(runnerClassName, testClass).getDescription();
+			store(gen, key, description);
+		}
+		return description;
+	}
+
+	private static Constructor<? extends Runner> findConstructor(Class<? extends Runner> runnerClass)
+			throws NoSuchMethodException {
+		try {
+			return runnerClass.getDeclaredConstructor(Class.class);
+		} catch (NoSuchMethodException e) {
+			return runnerClass.getConstructor();
+		}
+	}
+
+	/**
+	 * Forget all entries, and start a new class loader generation.
+	 */
+	public void invalidate() {
+		synchronized (entries) {
+			generation.incrementAndGet();
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Load classes from the given class loader from now on, starting a new generation.
+	 */
+	public void reload(ClassLoader loader) {
+		synchronized (entries) {
+			classLoader = loader;
+			generation.incrementAndGet();
+			entries.clear();
+		}
+	}
+
+	public ClassLoader getClassLoader() {
+		return classLoader;
+	}
+
+	public int getGeneration() {
+		return generation.get();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	private Object lookup(String key) {
+		Object value;
+		synchronized (entries) {
+			value = entries.get(key);
+		}
+		(value == null ? misses : hits).incrementAndGet();
+		return value;
+	}
+
+	private void store(int gen, String key, Object value) {
+		synchronized (entries) {
+			if (generation.get() == gen) {
+				entries.put(key, value);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "generation " + getGeneration() + ", " + size() + " entries, " + getHits() + " hits, " + getMisses()
+				+ " misses, " + getEvictions() + " evictions";
+	}
+}
@@ -0,0 +1,273 @@
+package com.tradeshift.test.remote.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters and timings of the requests handled by a {@link TestHandler}, served as text on GET /-/metrics and through
+ * JMX.
+ *
+ * Each request goes through these phases, each with its own histogram: waiting in the queue for a worker, creating
+ * the runner, running the tests, and writing the results, which is the time the worker spent blocked on sending them
+ * to the client.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+
+	private static final Logger log = LoggerFactory.getLogger(ServerMetrics.class);
+
+	private final ThreadPoolExecutor executor;
+	private final RunnerCache runnerCache;
+	private final ResultCache resultCache;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong abandoned = new AtomicLong();
+	private final AtomicLong testsRun = new AtomicLong();
+	private final AtomicLong testsFailed = new AtomicLong();
+	private final AtomicLong testsIgnored = new AtomicLong();
+	private final AtomicLong responseBytes = new AtomicLong();
+	private final Histogram queueTime = new Histogram();
+	private final Histogram runnerTime = new Histogram();
+	private final Histogram runTime = new Histogram();
+	private final Histogram writeTime = new Histogram();
+
+	private final RunListener listener = new RunListener() {
+		@Override
+		public void testFinished(Description description) {
+			testsRun.incrementAndGet();
+		}
+
+		@Override
+		public void testFailure(Failure failure) {
+			testsFailed.incrementAndGet();
+		}
+
+		@Override
+		public void testIgnored(Description description) {
+			testsIgnored.incrementAndGet();
+		}
+	};
+
+	/**
+	 * @param resultCache The result cache, or null if it is turned off
+	 */
+	public ServerMetrics(ThreadPoolExecutor executor, RunnerCache runnerCache, ResultCache resultCache) {
+		this.executor = executor;
+		this.runnerCache = runnerCache;
+		this.resultCache = resultCache;
+	}
+
+	/**
+	 * Register with the platform MBean server as com.tradeshift.test.remote:type=ServerMetrics,port=&lt;port&gt;.
+	 */
+	public void register(int port) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("com.tradeshift.test.remote:type=ServerMetrics,port=" + port));
+		} catch (JMException e) {
+			log.warn("Unable to register metrics with JMX: {}", e.toString());
+		}
+	}
+
+	/**
+	 * Counts the tests run, to be added to the notifier of every run.
+	 */
+	RunListener getListener() {
+		return listener;
+	}
+
+	void accepted() {
+		requests.incrementAndGet();
+	}
+
+	void rejected() {
+		rejected.incrementAndGet();
+	}
+
+	void error() {
+		errors.incrementAndGet();
+	}
+
+	void cancelled() {
+		cancelled.incrementAndGet();
+	}
+
+	void timedOut() {
+		timedOut.incrementAndGet();
+	}
+
+	void abandoned() {
+		abandoned.incrementAndGet();
+	}
+
+	void queued(long millis) {
+		queueTime.record(millis);
+	}
+
+	void runnerCreated(long millis) {
+		runnerTime.record(millis);
+	}
+
+	void ran(long millis) {
+		runTime.record(millis);
+	}
+
+	void written(MeteredOutputStream response) {
+		responseBytes.addAndGet(response.getBytes());
+		writeTime.record(response.getMillis());
+	}
+
+	@Override
+	public long getRequests() {
+		return requests.get();
+	}
+
+	@Override
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public long getCancelled() {
+		return cancelled.get();
+	}
+
+	@Override
+	public long getTimedOut() {
+		return timedOut.get();
+	}
+
+	@Override
+	public long getAbandoned() {
+		return abandoned.get();
+	}
+
+	@Override
+	public int getActive() {
+		return executor.getActiveCount();
+	}
+
+	@Override
+	public int getQueued() {
+		return executor.getQueue().size();
+	}
+
+	@Override
+	public long getTestsRun() {
+		return testsRun.get();
+	}
+
+	@Override
+	public long getTestsFailed() {
+		return testsFailed.get();
+	}
+
+	@Override
+	public long getTestsIgnored() {
+		return testsIgnored.get();
+	}
+
+	@Override
+	public long getResponseBytes() {
+		return responseBytes.get();
+	}
+
+	/**
+	 * Heap in use after the last garbage collection, which grows if the tests leak memory.
+	 */
+	@Override
+	public long getHeapRetained() {
+		long retained = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+			if (usage != null) {
+				retained += usage.getUsed();
+			}
+		}
+		return retained;
+	}
+
+	@Override
+	public long getHeapMax() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+	}
+
+	@Override
+	public String getQueueTime() {
+		return queueTime.toString();
+	}
+
+	@Override
+	public String getRunnerTime() {
+		return runnerTime.toString();
+	}
+
+	@Override
+	public String getRunTime() {
+		return runTime.toString();
+	}
+
+	@Override
+	public String getWriteTime() {
+		return writeTime.toString();
+	}
+
+	@Override
+	public String getRunnerCache() {
+		return runnerCache.toString();
+	}
+
+	@Override
+	public String getResultCache() {
+		return resultCache == null ? "off" : resultCache.toString();
+	}
+
+	/**
+	 * All metrics, one per line.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("requests ").append(getRequests()).append('\n');
+		sb.append("rejected ").append(getRejected()).append('\n');
+		sb.append("errors ").append(getErrors()).append('\n');
+		sb.append("cancelled ").append(getCancelled()).append('\n');
+		sb.append("timedOut ").append(getTimedOut()).append('\n');
+		sb.append("abandoned ").append(getAbandoned()).append('\n');
+		sb.append("active ").append(getActive()).append('\n');
+		sb.append("queued ").append(getQueued()).append('\n');
+		sb.append("tests.run ").append(getTestsRun()).append('\n');
+		sb.append("tests.failed ").append(getTestsFailed()).append('\n');
+		sb.append("tests.ignored ").append(getTestsIgnored()).append('\n');
+		sb.append("response.bytes ").append(getResponseBytes()).append('\n');
+		sb.append("heap.retained ").append(getHeapRetained()).append('\n');
+		sb.append("heap.max ").append(getHeapMax()).append('\n');
+		sb.append("time.queue ").append(getQueueTime()).append('\n');
+		sb.append("time.runner ").append(getRunnerTime()).append('\n');
+		sb.append("time.run ").append(getRunTime()).append('\n');
+		sb.append("time.write ").append(getWriteTime()).append('\n');
+		sb.append("runnerCache ").append(getRunnerCache()).append('\n');
+		sb.append("resultCache ").append(getResultCache()).append('\n');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,52 @@
+package com.tradeshift.test.remote.internal;
+
+/**
+ * The metrics of a {@link com.tradeshift.test.remote.RemoteServer} as seen through JMX. Durations are in milliseconds,
+ * and distributions are given as a summary of count, mean, percentiles and maximum.
+ */
+public interface ServerMetricsMBean {
+
+	long getRequests();
+
+	long getRejected();
+
+	long getErrors();
+
+	long getCancelled();
+
+	long getTimedOut();
+
+	/**
+	 * Workers left behind by tests which timed out and didn't stop when interrupted. They are replaced, so they add to
+	 * the threads of the server.
+	 */
+	long getAbandoned();
+
+	int getActive();
+
+	int getQueued();
+
+	long getTestsRun();
+
+	long getTestsFailed();
+
+	long getTestsIgnored();
+
+	long getResponseBytes();
+
+	long getHeapRetained();
+
+	long getHeapMax();
+
+	String getQueueTime();
+
+	String getRunnerTime();
+
+	String getRunTime();
+
+	String getWriteTime();
+
+	String getRunnerCache();
+
+	String getResultCache();
+}
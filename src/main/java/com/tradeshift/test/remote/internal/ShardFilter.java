@@ -0,0 +1,123 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+
+/**
+ * Selects the tests of one shard, so several JVMs, such as the agents of a CI build, can split the tests between them
+ * without talking to each other. The shard is given by the system properties junit.remote.shard.index, from 0, and
+ * junit.remote.shard.count.
+ *
+ * A test belongs to the shard given by a CRC32 hash of its class and method name, which is the same in every JVM. With
+ * junit.remote.shard.weighted=true the tests in {@link TestDurations} are instead spread over the shards by their
+ * duration, the longest first, each going to the shard with the least work so far, which balances the shards much
+ * better. This is only deterministic as long as every JVM reads the same durations file, for example one restored from
+ * a cache shared by all agents; tests without a duration still go by their hash.
+ */
+public class ShardFilter extends Filter {
+
+	private static ShardFilter instance;
+
+	private final int index;
+	private final int count;
+	private final Map<String, Integer> assigned;
+
+	public ShardFilter(int index, int count, Map<String, Long> durations) {
+		if (count < 1 || index < 0 || index >= count) {
+			throw new IllegalArgumentException("Invalid shard " + index + " of " + count);
+		}
+		this.index = index;
+		this.count = count;
+		this.assigned = durations == null ? Collections.<String, Integer>emptyMap() : assign(durations, count);
+	}
+
+	/**
+	 * The filter given by the system properties, or null if the tests aren't sharded.
+	 */
+	public static synchronized ShardFilter get() {
+		if (instance == null) {
+			Integer count = Integer.getInteger("junit.remote.shard.count");
+			if (count == null || count <= 1) {
+				return null;
+			}
+			int index = Integer.getInteger("junit.remote.shard.index", 0);
+			boolean weighted = Boolean.getBoolean("junit.remote.shard.weighted");
+			instance = new ShardFilter(index, count, weighted ? TestDurations.get().getDurations() : null);
+		}
+		return instance;
+	}
+
+	/**
+	 * Assign the tests to shards, the longest first, each to the shard with the lowest total duration.
+	 */
+	private static Map<String, Integer> assign(Map<String, Long> durations, int count) {
+		List<Map.Entry<String, Long>> tests = new ArrayList<Map.Entry<String, Long>>(durations.entrySet());
+		Collections.sort(tests, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+				int c = e2.getValue().compareTo(e1.getValue());
+				return c != 0 ? c : e1.getKey().compareTo(e2.getKey());
+			}
+		});
+		long[] loads = new long[count];
+		Map<String, Integer> assigned = new HashMap<String, Integer>();
+		for (Map.Entry<String, Long> test : tests) {
+			int shard = 0;
+			for (int i = 1; i < count; i++) {
+				if (loads[i] < loads[shard]) {
+					shard = i;
+				}
+			}
+			loads[shard] += test.getValue();
+			assigned.put(test.getKey(), shard);
+		}
+		return assigned;
+	}
+
+	public int getShard(String className, String methodName) {
+		String key = className + "#" + methodName;
+		Integer shard = assigned.get(key);
+		return shard != null ? shard : hash(key, count);
+	}
+
+	private static int hash(String key, int count) {
+		CRC32 crc = new CRC32();
+		try {
+			crc.update(key.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return (int) (crc.getValue() % count);
+	}
+
+	@Override
+	public boolean shouldRun(Description description) {
+		if (description.isTest()) {
+			String methodName = description.getMethodName();
+			if (methodName == null) {
+				return getShard(description.getDisplayName(), "") == index;
+			}
+			return getShard(description.getClassName(), methodName) == index;
+		}
+		for (Description child : description.getChildren()) {
+			if (shouldRun(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String describe() {
+		return "shard " + index + " of " + count;
+	}
+}
@@ -0,0 +1,526 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tradeshift.test.remote.Options;
+import com.tradeshift.test.remote.RemoteServer;
+
+/**
+ * Runs tests in a number of worker JVMs instead of in the server itself, so tests which can't run at the same time in
+ * one JVM, because of static state, can still use all cores of the machine.
+ *
+ * Each worker is a {@link RemoteServer} running one test at a time. Requests are passed on to an idle worker, and the
+ * response is copied back as it arrives. Requests arriving while all workers are busy wait in a queue of limited size,
+ * as with {@link TestHandler}. A worker which exits is started again, and a worker is replaced after -recycleAfter
+ * requests, or when it retains more than -recycleHeap percent of its heap, to get rid of whatever the tests leave
+ * behind. A worker left with a thread stuck in a test which timed out is replaced as well. The heap and stuck threads
+ * of the workers are checked in the background every {@link #CHECK_INTERVAL} ms, so requests don't wait for it.
+ */
+public class Supervisor extends AbstractHandler {
+
+	private static final Logger log = LoggerFactory.getLogger(Supervisor.class);
+
+	/**
+	 * How long a worker may take from being launched until it has warmed up and is ready for requests.
+	 */
+	private static final long START_TIMEOUT = 60000;
+
+	/**
+	 * How long a request waits for a worker to become idle, which only takes long while workers are being started.
+	 */
+	private static final long IDLE_TIMEOUT = START_TIMEOUT;
+
+	/**
+	 * How often the metrics of the workers are checked.
+	 */
+	private static final long CHECK_INTERVAL = 5000;
+
+	private static final Pattern ID = Pattern.compile("(?:^|&)id=([^&]*)");
+
+	private final Options opts;
+	private final List<String> command;
+	private final BlockingQueue<WorkerProcess> idle = new LinkedBlockingQueue<WorkerProcess>();
+	private final List<WorkerProcess> workers = new CopyOnWriteArrayList<WorkerProcess>();
+	private final ConcurrentMap<String, WorkerProcess> running = new ConcurrentHashMap<String, WorkerProcess>();
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService monitor;
+	private final AtomicInteger count = new AtomicInteger();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong restarted = new AtomicLong();
+	private final AtomicLong recycled = new AtomicLong();
+	private volatile boolean stopping;
+
+	public Supervisor(Options opts) {
+		this.opts = opts;
+		this.command = createCommand(opts);
+
+		BlockingQueue<Runnable> queue;
+		if (opts.getQueue() > 0) {
+			queue = new ArrayBlockingQueue<Runnable>(opts.getQueue());
+		} else {
+			queue = new SynchronousQueue<Runnable>();
+		}
+		final AtomicInteger threads = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(opts.getForks(), opts.getForks(), 60, TimeUnit.SECONDS, queue, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "supervisor-" + threads.incrementAndGet());
+			}
+		});
+		this.monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "worker-monitor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * The command starting a worker: a RemoteServer on a free port, with the classpath of this JVM, running one test at
+	 * a time and rejecting requests while it is busy.
+	 */
+	private static List<String> createCommand(Options opts) {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+		if (opts.getForkJvmArgs() != null) {
+			for (String arg : opts.getForkJvmArgs().trim().split("\\s+")) {
+				if (arg.length() > 0) {
+					command.add(arg);
+				}
+			}
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(RemoteServer.class.getName());
+		add(command, "-p", 0);
+		add(command, "-workers", 1);
+		add(command, "-queue", 0);
+		add(command, "-flushInterval", opts.getFlushInterval());
+		add(command, "-maxOutput", opts.getMaxOutput());
+		add(command, "-testTimeout", opts.getTestTimeout());
+		add(command, "-runnerCache", opts.getRunnerCache());
+		add(command, "-preload", opts.getPreload());
+		add(command, "-warmupTest", opts.getWarmupTest());
+		add(command, "-resultCache", opts.getResultCache());
+		add(command, "-resultCacheTtl", opts.getResultCacheTtl());
+		add(command, "-watch", opts.getWatch());
+		add(command, "-watchInterval", opts.getWatchInterval());
+		return command;
+	}
+
+	private static void add(List<String> command, String option, Object value) {
+		if (value != null) {
+			command.add(option);
+			command.add(value.toString());
+		}
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		super.doStart();
+		for (int i = 0; i < opts.getForks(); i++) {
+			launch();
+		}
+		monitor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					checkWorkers();
+				} catch (RuntimeException e) {
+					log.warn("Unable to check workers", e);
+				}
+			}
+		}, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		stopping = true;
+		monitor.shutdownNow();
+		executor.shutdownNow();
+		for (WorkerProcess worker : workers) {
+			worker.destroy();
+		}
+		super.doStop();
+	}
+
+	/**
+	 * Start a new worker in the background, making it idle once it is ready. If it doesn't get ready, another one is
+	 * started after a second.
+	 */
+	private void launch() {
+		final String name = "worker-" + count.incrementAndGet();
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!stopping) {
+						WorkerProcess worker = new WorkerProcess(name, command);
+						workers.add(worker);
+						if (worker.awaitReady(START_TIMEOUT)) {
+							log.info("Started {} at {}", name, worker.getUrl());
+							idle.add(worker);
+							return;
+						}
+						log.warn("{} did not get ready, trying again", name);
+						retire(worker);
+						Thread.sleep(1000);
+					}
+				} catch (IOException e) {
+					log.error("Unable to start worker JVM " + command, e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, name + "-launcher");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private void retire(WorkerProcess worker) {
+		worker.destroy();
+		workers.remove(worker);
+	}
+
+	@Override
+	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+		try {
+			if (!ContinuationSupport.getContinuation(request).isInitial()) {
+				return;
+			}
+			if (target.startsWith("/-/")) {
+				handleStatus(target, request, response);
+			} else if ("POST".equalsIgnoreCase(request.getMethod()) || "GET".equalsIgnoreCase(request.getMethod())) {
+				forward(target, request, response);
+			}
+		} finally {
+			baseRequest.setHandled(true);
+		}
+	}
+
+	/**
+	 * Suspend the request and pass it on to a worker once one is idle.
+	 */
+	private void forward(String target, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		final String path = target.substring(1) + (request.getQueryString() == null ? "" : "?" + request.getQueryString());
+		final String method = request.getMethod().toUpperCase();
+		final String id = getId(request.getQueryString());
+		final String contentType = request.getContentType();
+		final byte[] body = "POST".equals(method) ? readBody(request) : null;
+		final HttpServletResponse clientResponse = response;
+		final Continuation continuation = ContinuationSupport.getContinuation(request);
+		final AtomicBoolean completed = new AtomicBoolean();
+		final CountDownLatch dispatched = new CountDownLatch(1);
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						dispatched.await();
+						proxy(id, method, path, contentType, body, clientResponse);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (IOException e) {
+						log.warn("Unable to run {}: {}", path, e.toString());
+					} catch (RuntimeException e) {
+						log.error("Unable to run " + path, e);
+					} finally {
+						if (completed.compareAndSet(false, true)) {
+							continuation.complete();
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			response.setHeader("Retry-After", "1");
+			response.sendError(503, "All workers busy, " + executor.getQueue().size() + " tests queued");
+			return;
+		}
+		requests.incrementAndGet();
+		continuation.setTimeout(0);
+		continuation.suspend(response);
+		DispatchThreadPool.afterDispatch(new Runnable() {
+			@Override
+			public void run() {
+				dispatched.countDown();
+			}
+		});
+	}
+
+	/**
+	 * Send the request to an idle worker and copy the response back. A worker which is busy, as it is still running a
+	 * test whose client went away, or which turns out to have exited before the response started, is skipped. If no
+	 * worker becomes idle in time, the request is rejected with 503 so the client can try another server.
+	 */
+	private void proxy(String id, String method, String path, String contentType, byte[] body, HttpServletResponse response) throws IOException, InterruptedException {
+		for (int attempt = 0; ; attempt++) {
+			WorkerProcess worker = idle.poll(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+			if (worker == null) {
+				rejected.incrementAndGet();
+				response.setHeader("Retry-After", "1");
+				response.sendError(503, "No worker became idle in " + IDLE_TIMEOUT + " ms");
+				return;
+			}
+			if (id != null) {
+				running.put(id, worker);
+			}
+			try {
+				boolean last = attempt >= opts.getForks();
+				HttpResponse workerResponse;
+				try {
+					workerResponse = ConnectionPool.get().execute(toUri(worker.getUrl() + path), method, contentType, body, 0);
+				} catch (IOException e) {
+					release(worker);
+					if (last) {
+						throw e;
+					}
+					log.debug("{} failed, trying another worker: {}", worker.getName(), e.toString());
+					continue;
+				}
+				if (workerResponse.getStatus() == 503 && !last) {
+					workerResponse.getBody().close();
+					idle.add(worker);
+					continue;
+				}
+				try {
+					copy(workerResponse, response);
+				} finally {
+					release(worker);
+				}
+				return;
+			} finally {
+				if (id != null) {
+					running.remove(id, worker);
+				}
+			}
+		}
+	}
+
+	private static void copy(HttpResponse from, HttpServletResponse to) throws IOException {
+		to.setStatus(from.getStatus());
+		if (from.getHeader("content-type") != null) {
+			to.setContentType(from.getHeader("content-type"));
+		}
+		if (from.getHeader("retry-after") != null) {
+			to.setHeader("Retry-After", from.getHeader("retry-after"));
+		}
+		InputStream in = from.getBody();
+		OutputStream out = to.getOutputStream();
+		byte[] buffer = new byte[Protocol.CHUNK_SIZE];
+		try {
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				try {
+					out.write(buffer, 0, n);
+					out.flush();
+				} catch (IOException e) {
+					// The client went away, so don't wait for the rest
+					from.abort();
+					throw e;
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Mark workers which should be replaced, by their metrics. An idle worker is replaced right away, a busy one once
+	 * it is done with its request.
+	 */
+	private void checkWorkers() {
+		for (WorkerProcess worker : workers) {
+			if (!worker.isReady() || worker.getRetireReason() != null) {
+				continue;
+			}
+			String metrics = worker.getMetrics();
+			if (WorkerProcess.getMetric(metrics, "abandoned") > 0) {
+				worker.setRetireReason("is stuck in a test which timed out");
+			} else if (opts.getRecycleHeap() > 0 && WorkerProcess.getHeapUsage(metrics) >= opts.getRecycleHeap()) {
+				worker.setRetireReason("retains more than " + opts.getRecycleHeap() + "% of its heap");
+			}
+			if (worker.getRetireReason() != null && idle.remove(worker)) {
+				recycled.incrementAndGet();
+				replace(worker, worker.getRetireReason());
+			}
+		}
+	}
+
+	/**
+	 * Make a worker idle again after a request, unless it has exited or should be replaced, in which case a new
+	 * worker is started in its place.
+	 */
+	private void release(WorkerProcess worker) {
+		int served = worker.addRequest();
+		String reason = null;
+		if (!worker.isAlive()) {
+			reason = "exited";
+			restarted.incrementAndGet();
+		} else if (opts.getRecycleAfter() > 0 && served >= opts.getRecycleAfter()) {
+			reason = "served " + served + " requests";
+			recycled.incrementAndGet();
+		} else if (worker.getRetireReason() != null) {
+			reason = worker.getRetireReason();
+			recycled.incrementAndGet();
+		}
+		if (reason == null) {
+			idle.add(worker);
+		} else {
+			replace(worker, reason);
+		}
+	}
+
+	private void replace(WorkerProcess worker, String reason) {
+		if (!stopping) {
+			log.info("Replacing {}, which {}", worker.getName(), reason);
+			retire(worker);
+			launch();
+		}
+	}
+
+	private void handleStatus(String target, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if ("/-/ready".equals(target)) {
+			response.setContentType("text/plain");
+			if (isReady()) {
+				response.getWriter().println("Ready");
+			} else {
+				response.setHeader("Retry-After", "1");
+				response.setStatus(503);
+				response.getWriter().println("Starting workers");
+			}
+		} else if ("/-/metrics".equals(target)) {
+			response.setContentType("text/plain");
+			response.getWriter().print(this);
+		} else if ("/-/cancel".equals(target)) {
+			cancel(request.getParameter("id"), response);
+		} else {
+			response.sendError(404);
+		}
+	}
+
+	/**
+	 * Ready once any worker is ready and running, whether it is busy or not.
+	 */
+	public boolean isReady() {
+		for (WorkerProcess worker : workers) {
+			if (worker.isReady()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The id of a test request, which is sent in the query string. The body, holding the other parameters, is passed
+	 * on as it is.
+	 */
+	private static String getId(String query) {
+		if (query == null) {
+			return null;
+		}
+		Matcher m = ID.matcher(query);
+		try {
+			return m.find() ? URLDecoder.decode(m.group(1), "UTF-8") : null;
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Pass a request to cancel a test on to the worker running it.
+	 */
+	private void cancel(String id, HttpServletResponse response) throws IOException {
+		WorkerProcess worker = id == null ? null : running.get(id);
+		if (worker == null) {
+			response.setContentType("text/plain");
+			response.setStatus(404);
+			response.getWriter().println("Not running");
+			return;
+		}
+		copy(ConnectionPool.get().executeUnlimited(toUri(worker.getUrl() + "-/cancel?id=" + URLEncoder.encode(id, "UTF-8")), "POST", null, null, 10000),
+				response);
+	}
+
+	private static URI toUri(String url) {
+		try {
+			return new URI(url);
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static byte[] readBody(HttpServletRequest request) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputStream in = request.getInputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, n);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * The metrics of the supervisor and its workers, one per line.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("forks ").append(opts.getForks()).append('\n');
+		sb.append("idle ").append(idle.size()).append('\n');
+		sb.append("queued ").append(executor.getQueue().size()).append('\n');
+		sb.append("requests ").append(requests.get()).append('\n');
+		sb.append("rejected ").append(rejected.get()).append('\n');
+		sb.append("restarted ").append(restarted.get()).append('\n');
+		sb.append("recycled ").append(recycled.get()).append('\n');
+		for (WorkerProcess worker : workers) {
+			sb.append("worker ").append(worker).append('\n');
+		}
+		return sb.toString();
+	}
+}
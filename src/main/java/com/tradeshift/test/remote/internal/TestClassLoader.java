@@ -0,0 +1,68 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Loads the classes and resources found in a set of class directories itself, and everything else from its parent.
+ * Test classes can then be reloaded by replacing the loader, while the application and framework classes in the
+ * parent stay loaded, even if the directories are on the classpath of the parent as well.
+ */
+public class TestClassLoader extends URLClassLoader {
+
+	private final File[] dirs;
+
+	public TestClassLoader(File[] dirs, ClassLoader parent) {
+		super(toUrls(dirs), parent);
+		this.dirs = dirs.clone();
+	}
+
+	@Override
+	protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		if (!isLocal(name.replace('.', '/') + ".class")) {
+			return super.loadClass(name, resolve);
+		}
+		Class<?> c = findLoadedClass(name);
+		if (c == null) {
+			c = findClass(name);
+		}
+		if (resolve) {
+			resolveClass(c);
+		}
+		return c;
+	}
+
+	@Override
+	public URL getResource(String name) {
+		if (isLocal(name)) {
+			URL url = findResource(name);
+			if (url != null) {
+				return url;
+			}
+		}
+		return super.getResource(name);
+	}
+
+	private boolean isLocal(String path) {
+		for (File dir : dirs) {
+			if (new File(dir, path).isFile()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static URL[] toUrls(File[] dirs) {
+		URL[] urls = new URL[dirs.length];
+		for (int i = 0; i < dirs.length; i++) {
+			try {
+				urls[i] = dirs[i].toURI().toURL();
+			} catch (MalformedURLException e) {
+				throw new IllegalArgumentException("Invalid class directory " + dirs[i], e);
+			}
+		}
+		return urls;
+	}
+}
@@ -0,0 +1,145 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durations of tests in previous runs, used to send the longest tests first.
+ *
+ * The durations are kept in a properties file, target/junit-remote-durations.properties unless the
+ * junit.remote.durations system property says otherwise, with one entry per test mapping class#method to milliseconds.
+ * The file is read the first time it is needed, and tests run by this JVM are merged into it on exit. Set
+ * junit.remote.durations to an empty value to disable it.
+ */
+public class TestDurations {
+
+	private static final Logger log = LoggerFactory.getLogger(TestDurations.class);
+
+	private static final TestDurations INSTANCE = new TestDurations(System.getProperty("junit.remote.durations",
+			"target/junit-remote-durations.properties"));
+
+	private final File file;
+	private final ConcurrentMap<String, Long> previous = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentMap<String, Long> recorded = new ConcurrentHashMap<String, Long>();
+
+	public TestDurations(String path) {
+		this.file = path == null || path.trim().length() == 0 ? null : new File(path);
+		if (file == null) {
+			return;
+		}
+		previous.putAll(load(file));
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				save();
+			}
+		});
+	}
+
+	public static TestDurations get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the duration of the test in the previous run, or -1 if it is not known
+	 */
+	public long getDuration(Class<?> testClass, String methodName) {
+		Long duration = previous.get(key(testClass, methodName));
+		return duration == null ? -1 : duration;
+	}
+
+	/**
+	 * The durations of the previous run, by class#method.
+	 */
+	public Map<String, Long> getDurations() {
+		return Collections.unmodifiableMap(previous);
+	}
+
+	public void record(Class<?> testClass, String methodName, long millis) {
+		if (file != null) {
+			recorded.put(key(testClass, methodName), millis);
+		}
+	}
+
+	/**
+	 * Merge the durations recorded by this JVM into the file. The file is read again first, so other JVMs writing to
+	 * the same file in the meantime only lose the tests both have run.
+	 */
+	synchronized void save() {
+		if (recorded.isEmpty()) {
+			return;
+		}
+		Map<String, Long> durations = load(file);
+		for (Map.Entry<String, Long> e : recorded.entrySet()) {
+			Long old = durations.get(e.getKey());
+			durations.put(e.getKey(), old == null ? e.getValue() : (old + e.getValue()) / 2);
+		}
+
+		Properties props = new Properties();
+		for (Map.Entry<String, Long> e : durations.entrySet()) {
+			props.setProperty(e.getKey(), e.getValue().toString());
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			if (file.getAbsoluteFile().getParentFile() != null) {
+				file.getAbsoluteFile().getParentFile().mkdirs();
+			}
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				props.store(out, "Test durations in milliseconds");
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Unable to rename " + tmp + " to " + file);
+				}
+			}
+		} catch (IOException e) {
+			log.warn("Unable to save test durations to {}: {}", file, e.toString());
+		}
+	}
+
+	private static Map<String, Long> load(File file) {
+		Map<String, Long> durations = new ConcurrentHashMap<String, Long>();
+		if (!file.isFile()) {
+			return durations;
+		}
+		Properties props = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.warn("Unable to read test durations from {}: {}", file, e.toString());
+		}
+		for (String key : props.stringPropertyNames()) {
+			try {
+				durations.put(key, Long.parseLong(props.getProperty(key)));
+			} catch (NumberFormatException e) {
+				log.debug("Ignoring invalid duration of {}", key);
+			}
+		}
+		return durations;
+	}
+
+	private static String key(Class<?> testClass, String methodName) {
+		return testClass.getName() + "#" + methodName;
+	}
+}
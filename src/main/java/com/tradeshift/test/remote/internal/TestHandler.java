@@ -0,0 +1,672 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tradeshift.test.remote.Options;
+import com.tradeshift.test.remote.Remote;
+import com.tradeshift.test.remote.RemoteTestRunner;
+
+/**
+ * Handles test requests sent to the {@link com.tradeshift.test.remote.RemoteServer}.
+ *
+ * Tests are run by a fixed number of workers. Requests arriving while all workers are busy wait in a queue of limited
+ * size, and requests arriving when the queue is full are rejected with 503, so the client can try another server.
+ *
+ * Jetty's thread is not held while a test waits or runs: the request is suspended once it has been accepted, and the
+ * worker running the test writes the results and completes it. The number of tests in progress is therefore limited
+ * by the workers and the queue, not by the threads of the server. The server should run on a
+ * {@link DispatchThreadPool}, so the worker only starts writing once Jetty's thread is done with the connection.
+ */
+public class TestHandler extends AbstractHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(TestHandler.class);
+
+    /**
+     * Runs writing more output than this are not kept in the result cache.
+     */
+    private static final long MAX_CACHED_OUTPUT = 1024 * 1024;
+
+    private final RedirectingStream out;
+    private final RedirectingStream err;
+    private final long maxOutput;
+    private final OutputFlusher flusher;
+    private final long testTimeout;
+    private final TestTimeouts timeouts;
+    private final ThreadPoolExecutor executor;
+    private final RunnerCache runnerCache;
+    private final ResultCache resultCache;
+    private final ServerMetrics metrics;
+    private final ConcurrentMap<String, Execution> executions = new ConcurrentHashMap<String, Execution>();
+    private volatile boolean ready;
+
+    public TestHandler(Options opts, RedirectingStream out, RedirectingStream err) {
+        this.out = out;
+        this.err = err;
+        this.maxOutput = opts.getMaxOutput();
+        this.flusher = new OutputFlusher(opts.getFlushInterval());
+        this.runnerCache = new RunnerCache(opts.getRunnerCache());
+        if (opts.getWatch() != null) {
+            watch(opts.getWatch(), opts.getWatchInterval());
+        }
+        this.resultCache = opts.getResultCache() > 0 ? new ResultCache(opts.getResultCache(), opts.getResultCacheTtl() * 1000) : null;
+        this.ready = opts.getPreload() == null && opts.getWarmupTest() == null;
+
+        BlockingQueue<Runnable> queue;
+        if (opts.getQueue() > 0) {
+            queue = new ArrayBlockingQueue<Runnable>(opts.getQueue());
+        } else {
+            queue = new SynchronousQueue<Runnable>();
+        }
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(opts.getWorkers(), opts.getWorkers(), 60, TimeUnit.SECONDS, queue, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "test-worker-" + count.incrementAndGet());
+            }
+        });
+        this.metrics = new ServerMetrics(executor, runnerCache, resultCache);
+        this.testTimeout = opts.getTestTimeout();
+        this.timeouts = new TestTimeouts(metrics);
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        try {
+            if (!ContinuationSupport.getContinuation(request).isInitial()) {
+                // A test request which was suspended while its test ran, and has completed
+                return;
+            }
+            if (target.startsWith("/-/")) {
+                handleStatus(target, request, response);
+                return;
+            }
+            final Class<?> testClass = getTestClass(request);
+
+            String method = request.getMethod();
+            response.setBufferSize(Protocol.CHUNK_SIZE);
+            if ("POST".equalsIgnoreCase(method)) {
+                runTests(testClass, request, response);
+            } else if ("GET".equalsIgnoreCase(method)) {
+                describe(testClass, request, response);
+            }
+
+        } catch (ClassNotFoundException e) {
+            response.sendError(500, e.getMessage());
+        } finally {
+            baseRequest.setHandled(true);
+        }
+    }
+
+    private void runTests(final Class<?> testClass, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final boolean binary = getProtocol(request) >= Protocol.BINARY;
+        final boolean batch = Boolean.parseBoolean(request.getParameter("batch"));
+        final String runnerClass = request.getParameter("runner");
+        final String[] methods = request.getParameterValues("method");
+        final boolean cached = resultCache != null && !"false".equals(request.getParameter("cache"));
+        final String id = request.getParameter("id");
+        final long timeout = getTimeout(request);
+        if (!ready) {
+            metrics.rejected();
+            response.setHeader("Retry-After", "1");
+            response.sendError(503, "Warming up");
+            return;
+        }
+        final ServletOutputStream pw = response.getOutputStream();
+        final Execution execution = new Execution(id, testClass, ContinuationSupport.getContinuation(request));
+
+        final CountDownLatch committed = new CountDownLatch(1);
+        final long submitted = System.currentTimeMillis();
+        try {
+            execution.future = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        committed.await();
+                        if (!execution.start()) {
+                            return;
+                        }
+                        long started = System.currentTimeMillis();
+                        metrics.queued(started - submitted);
+                        final WatchedOutputStream watched = new WatchedOutputStream(pw, new Runnable() {
+                            @Override
+                            public void run() {
+                                execution.cancel("the client went away");
+                            }
+                        });
+                        MeteredOutputStream metered = new MeteredOutputStream(watched);
+                        final ResultWriter writer = binary ? new BinaryResultWriter(metered, maxOutput) : new TextResultWriter(metered, batch, maxOutput);
+                        String key = cached ? resultCache.getKey(testClass, runnerClass, methods) : null;
+                        RecordingWriter.Recording previous = key != null ? resultCache.get(key) : null;
+                        if (previous != null) {
+                            previous.replay(writer);
+                            long finished = System.currentTimeMillis();
+                            log.debug("Replayed {} from the result cache after waiting {} ms", testClass.getName(), started - submitted);
+                            writer.timing(started - submitted, finished - started);
+                            writer.done();
+                        } else {
+                            RecordingWriter recording = key != null ? new RecordingWriter(writer, MAX_CACHED_OUTPUT) : null;
+                            Runnable abandon = new Runnable() {
+                                @Override
+                                public void run() {
+                                    abandon(execution, writer, watched);
+                                }
+                            };
+                            boolean completed = execute(execution, runnerClass, methods, timeout, abandon, recording != null ? recording : writer);
+                            if (execution.isAbandoned()) {
+                                log.info("Abandoned {} returned after all", testClass.getName());
+                                return;
+                            }
+                            if (completed) {
+                                long finished = System.currentTimeMillis();
+                                log.debug("Ran {} after waiting {} ms in {} ms", new Object[] { testClass.getName(), started - submitted, finished - started });
+                                writer.timing(started - submitted, finished - started);
+                                writer.done();
+                                if (recording != null && !execution.timedOut) {
+                                    resultCache.put(key, recording);
+                                }
+                            } else {
+                                metrics.error();
+                            }
+                        }
+                        metrics.written(metered);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (IOException e) {
+                        if (execution.isCancelled()) {
+                            log.debug("Unable to send result of cancelled {}: {}", testClass.getName(), e.toString());
+                        } else {
+                            metrics.error();
+                            log.warn("Unable to send result of {}: {}", testClass.getName(), e.toString());
+                        }
+                    } catch (RuntimeException e) {
+                        metrics.error();
+                        log.error("Test execution failed", e);
+                    } finally {
+                        execution.complete();
+                        if (execution.isAbandoned()) {
+                            shrink();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            metrics.rejected();
+            response.setHeader("Retry-After", "1");
+            response.sendError(503, "All workers busy, " + executor.getQueue().size() + " tests queued");
+            return;
+        }
+
+        metrics.accepted();
+        if (id != null) {
+            executions.put(id, execution);
+        }
+        try {
+            response.setStatus(200);
+            if (binary) {
+                response.setContentType(Protocol.CONTENT_TYPE);
+            }
+            execution.continuation.setTimeout(0);
+            execution.continuation.suspend(response);
+            response.flushBuffer();
+        } catch (IOException e) {
+            execution.future.cancel(true);
+            execution.complete();
+            throw e;
+        } finally {
+            // Jetty's thread flushes the response after the handler returns, so the worker must wait until it is done
+            DispatchThreadPool.afterDispatch(new Runnable() {
+                @Override
+                public void run() {
+                    committed.countDown();
+                }
+            });
+        }
+    }
+
+    /**
+     * End the response of a run whose test timed out and didn't stop when interrupted, and add a worker to the pool
+     * in place of the one which is stuck. The response is detached, so whatever the test writes if it ever returns
+     * goes nowhere. The pool shrinks again when it does.
+     */
+    private void abandon(Execution execution, ResultWriter writer, WatchedOutputStream response) {
+        if (!execution.abandon()) {
+            return;
+        }
+        metrics.abandoned();
+        synchronized (executor) {
+            executor.setMaximumPoolSize(executor.getMaximumPoolSize() + 1);
+            executor.setCorePoolSize(executor.getCorePoolSize() + 1);
+        }
+        // Writers lock themselves while writing, so holding the lock keeps the stuck test from writing in between
+        synchronized (writer) {
+            try {
+                writer.done();
+            } catch (IOException e) {
+                log.debug("Unable to end the response of abandoned {}: {}", execution.testClass.getName(), e.toString());
+            } finally {
+                response.detach();
+            }
+        }
+        execution.complete();
+    }
+
+    private void shrink() {
+        synchronized (executor) {
+            executor.setCorePoolSize(executor.getCorePoolSize() - 1);
+            executor.setMaximumPoolSize(executor.getMaximumPoolSize() - 1);
+        }
+    }
+
+    /**
+     * Milliseconds each test of a request may run, given by the timeout parameter or else by -testTimeout, 0 meaning
+     * no limit.
+     */
+    private long getTimeout(HttpServletRequest request) {
+        String timeout = request.getParameter("timeout");
+        if (timeout != null) {
+            try {
+                long millis = Long.parseLong(timeout);
+                if (millis > 0) {
+                    return millis;
+                }
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring invalid timeout {}", timeout);
+            }
+        }
+        return testTimeout;
+    }
+
+    /**
+     * Answer with the description tree of the runner given by the runner parameter, or of the test class, so the client
+     * can send each test to a server of its own, including tests the client can't find itself, such as the parameter
+     * sets of a Parameterized test. See {@link Descriptions}.
+     */
+    private void describe(Class<?> testClass, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String runnerClass = request.getParameter("runner");
+        if (runnerClass == null) {
+            runnerClass = getRunnerClass(testClass).getName();
+        }
+        Description description;
+        try {
+            description = runnerCache.getDescription(runnerClass, testClass);
+        } catch (RuntimeException e) {
+            log.warn("Unable to describe {}: {}", testClass.getName(), e.toString());
+            response.sendError(500, e.toString());
+            return;
+        }
+        response.setContentType(Descriptions.CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        Descriptions.write(description, response.getWriter());
+    }
+
+    /**
+     * A test request which has been accepted, and can be cancelled until it is done. A request which is cancelled
+     * while it waits for a worker is completed right away. Otherwise the worker running its tests is interrupted, and
+     * the tests end as soon as they notice.
+     */
+    private class Execution {
+        final String id;
+        final Class<?> testClass;
+        final Continuation continuation;
+        volatile Future<?> future;
+        volatile boolean timedOut;
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final AtomicBoolean completed = new AtomicBoolean();
+        private final AtomicBoolean abandoned = new AtomicBoolean();
+
+        Execution(String id, Class<?> testClass, Continuation continuation) {
+            this.id = id;
+            this.testClass = testClass;
+            this.continuation = continuation;
+        }
+
+        /**
+         * Called by the worker before running the tests.
+         *
+         * @return false if the request has been cancelled, and the tests should not run
+         */
+        boolean start() {
+            return started.compareAndSet(false, true);
+        }
+
+        void cancel(String reason) {
+            if (!cancelled.compareAndSet(false, true)) {
+                return;
+            }
+            metrics.cancelled();
+            if (started.compareAndSet(false, true)) {
+                log.debug("Cancelled {} before it started, as {}", testClass.getName(), reason);
+                future.cancel(false);
+                executor.remove((Runnable) future);
+                complete();
+            } else {
+                log.info("Interrupting {}, as {}", testClass.getName(), reason);
+                future.cancel(true);
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        /**
+         * @return false if the request has already been abandoned
+         */
+        boolean abandon() {
+            return abandoned.compareAndSet(false, true);
+        }
+
+        boolean isAbandoned() {
+            return abandoned.get();
+        }
+
+        /**
+         * Complete the suspended request, unless this has already been done.
+         */
+        void complete() {
+            if (completed.compareAndSet(false, true)) {
+                if (id != null) {
+                    executions.remove(id, this);
+                }
+                continuation.complete();
+            }
+        }
+    }
+
+    /**
+     * Load the classes and run the test given by the -preload and -warmupTest options, so the first tests sent to the
+     * server don't have to wait for class loading and setup. Until this is done, the server reports it isn't ready
+     * and rejects tests with 503.
+     */
+    public void warmUp(Options opts) {
+        long start = System.currentTimeMillis();
+        try {
+            int loaded = 0;
+            if (opts.getPreload() != null) {
+                for (String name : opts.getPreload().split(",")) {
+                    name = name.trim();
+                    if (name.endsWith(".*")) {
+                        try {
+                            for (String className : Utils.findClasses(name.substring(0, name.length() - 2))) {
+                                loaded += preload(className);
+                            }
+                        } catch (IOException e) {
+                            log.warn("Unable to find classes in {}: {}", name, e.toString());
+                        }
+                    } else if (name.length() > 0) {
+                        loaded += preload(name);
+                    }
+                }
+            }
+            if (opts.getWarmupTest() != null) {
+                runWarmupTest(opts.getWarmupTest());
+            }
+            log.info("Warmed up in {} ms, loaded {} classes", System.currentTimeMillis() - start, loaded);
+        } finally {
+            ready = true;
+        }
+    }
+
+    /**
+     * Load a class and, if it is a remote test, create its runner.
+     *
+     * @return 1 if the class was loaded, else 0
+     */
+    private int preload(String className) {
+        try {
+            Class<?> c = runnerCache.getTestClass(className);
+            RunWith runWith = Utils.findAnnotation(c, RunWith.class);
+            if (runWith != null && runWith.value() == RemoteTestRunner.class && !Modifier.isAbstract(c.getModifiers())) {
+                runnerCache.createRunner(getRunnerClass(c).getName(), c);
+            }
+            return 1;
+        } catch (Throwable t) {
+            log.warn("Unable to preload {}: {}", className, t.toString());
+            return 0;
+        }
+    }
+
+    private void runWarmupTest(String test) {
+        String[] parts = test.split("#", 2);
+        try {
+            Class<?> testClass = runnerCache.getTestClass(parts[0]);
+            Runner runner = runnerCache.createRunner(getRunnerClass(testClass).getName(), testClass);
+            if (parts.length > 1) {
+                Utils.filter(runner, Utils.matchMethods(parts[1]));
+            }
+            RunNotifier notifier = new RunNotifier();
+            notifier.addListener(new RunListener() {
+                @Override
+                public void testFailure(Failure failure) {
+                    log.warn("Warm-up test {} failed: {}", failure.getDescription(), failure.getMessage());
+                }
+            });
+            runWithClassLoader(runner, notifier, testClass.getClassLoader());
+        } catch (Throwable t) {
+            log.warn("Unable to run warm-up test " + test, t);
+        }
+    }
+
+    /**
+     * Load test classes from the given directories, and load them again from a new class loader whenever any class in
+     * them has changed. Other classes are loaded by the server's class loader, so they are only loaded once.
+     */
+    private void watch(String watch, long interval) {
+        List<File> list = new ArrayList<File>();
+        for (String dir : watch.split(",")) {
+            if (dir.trim().length() > 0) {
+                list.add(new File(dir.trim()).getAbsoluteFile());
+            }
+        }
+        final File[] dirs = list.toArray(new File[list.size()]);
+        final ClassLoader parent = getClass().getClassLoader();
+        runnerCache.reload(new TestClassLoader(dirs, parent));
+        new ClassWatcher(dirs, interval, new Runnable() {
+            @Override
+            public void run() {
+                runnerCache.reload(new TestClassLoader(dirs, parent));
+                log.info("Reloaded test classes from {}", Arrays.toString(dirs));
+            }
+        }).start();
+        log.info("Loading test classes from {}", Arrays.toString(dirs));
+    }
+
+    /**
+     * Run the tests with the class loader of the test class as the context class loader, for frameworks loading
+     * classes of the test by name.
+     */
+    private static void runWithClassLoader(Runner runner, RunNotifier notifier, ClassLoader loader) {
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            runner.run(notifier);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    private static Class<? extends Runner> getRunnerClass(Class<?> testClass) {
+        Remote remote = Utils.findAnnotation(testClass, Remote.class);
+        return remote != null ? remote.runnerClass() : BlockJUnit4ClassRunner.class;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Run the tests, writing the results. If the run completes it is not ended with {@link ResultWriter#done()}, so
+     * the caller can add to it.
+     *
+     * @param timeout Milliseconds each test may run, or 0 for no limit, see {@link TestTimeouts}
+     * @param abandon Called if a test times out and doesn't stop
+     * @return false if the run failed and an error has been written
+     */
+    private boolean execute(Execution execution, String runnerClass, String[] methods, long timeout, Runnable abandon, ResultWriter writer) throws IOException {
+        final Class<?> testClass = execution.testClass;
+        TestTimeouts.Listener watchdog = null;
+        flusher.register(writer);
+        try {
+            long start = System.currentTimeMillis();
+            final Runner runner = runnerCache.createRunner(runnerClass, testClass);
+            if (methods != null) {
+                try {
+                    Utils.filter(runner, Utils.matchMethods(methods));
+                } catch (NoTestsRemainException e) {
+                    writer.error("No tests remaining");
+                    return false;
+                }
+            }
+            final RunNotifier notifier = new RunNotifier();
+            RunListener listener = new ResultListener(writer);
+            if (timeout > 0) {
+                watchdog = timeouts.watch(listener, timeout, abandon);
+                listener = watchdog;
+            }
+            notifier.addListener(listener);
+            notifier.addListener(metrics.getListener());
+            long created = System.currentTimeMillis();
+            metrics.runnerCreated(created - start);
+            withStream(writer.getOut(), writer.getErr(), new Runnable() {
+                @Override
+                public void run() {
+                    runWithClassLoader(runner, notifier, testClass.getClassLoader());
+                }
+            });
+            metrics.ran(System.currentTimeMillis() - created);
+            return true;
+        } catch (Exception e1) {
+            writer.error(e1.toString());
+            return false;
+        } finally {
+            if (watchdog != null) {
+                watchdog.stop();
+                execution.timedOut = watchdog.hasTimedOut();
+            }
+            flusher.unregister(writer);
+        }
+    }
+
+    private void withStream(OutputStream outStream, OutputStream errStream, Runnable task) {
+        try {
+            out.setRedirector(outStream);
+            err.setRedirector(errStream);
+            task.run();
+        } finally {
+            out.setRedirector(null);
+            err.setRedirector(null);
+        }
+    }
+
+    private static int getProtocol(HttpServletRequest request) {
+        String protocol = request.getParameter("protocol");
+        if (protocol == null) {
+            return Protocol.TEXT;
+        }
+        try {
+            return Integer.parseInt(protocol);
+        } catch (NumberFormatException e) {
+            return Protocol.TEXT;
+        }
+    }
+
+    /**
+     * Requests for the server itself rather than a test class. Test class names can't contain '-', so these can't
+     * clash with a test.
+     */
+    private void handleStatus(String target, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if ("/-/ready".equals(target)) {
+            response.setContentType("text/plain");
+            if (ready) {
+                response.getWriter().println("Ready");
+            } else {
+                response.setHeader("Retry-After", "1");
+                response.setStatus(503);
+                response.getWriter().println("Warming up");
+            }
+        } else if ("/-/cache".equals(target)) {
+            response.setContentType("text/plain");
+            response.getWriter().println("Runner cache: " + runnerCache);
+            if (resultCache != null) {
+                response.getWriter().println("Result cache: " + resultCache);
+            }
+        } else if ("/-/metrics".equals(target)) {
+            response.setContentType("text/plain");
+            response.getWriter().print(metrics);
+        } else if ("/-/cancel".equals(target)) {
+            String id = request.getParameter("id");
+            Execution execution = id == null ? null : executions.get(id);
+            response.setContentType("text/plain");
+            if (execution == null) {
+                response.setStatus(404);
+                response.getWriter().println("Not running");
+            } else {
+                execution.cancel("it was cancelled by the client");
+                response.getWriter().println("Cancelled");
+            }
+        } else {
+            response.sendError(404);
+        }
+    }
+
+    public RunnerCache getRunnerCache() {
+        return runnerCache;
+    }
+
+    /**
+     * The result cache, or null if it is turned off.
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    private Class<?> getTestClass(HttpServletRequest request) throws ClassNotFoundException {
+        String testClassName = request.getPathInfo().substring(request.getPathInfo().lastIndexOf('/') + 1);
+        return runnerCache.getTestClass(testClassName);
+    }
+}
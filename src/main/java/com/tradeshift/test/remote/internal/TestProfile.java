@@ -0,0 +1,126 @@
+package com.tradeshift.test.remote.internal;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * What a test cost the server: how long it ran, the CPU time and heap allocated by the thread running it, and the
+ * time the JVM spent in garbage collection while it ran. Values which aren't known are -1.
+ *
+ * CPU time and allocation only count the thread running the test, not threads the test starts. Garbage collection is
+ * for the whole JVM, so tests running at the same time share it. Measuring a test takes a few reads of counters the
+ * JVM keeps anyway, so this is always on.
+ *
+ * A test with @Test(timeout) or a Timeout rule runs its body in a thread of its own, which has ended by the time the
+ * test finishes, so its CPU time and allocation can't be measured. The profile of a @Test(timeout) test is marked as
+ * partial; tests using a Timeout rule can't be told apart.
+ */
+public class TestProfile {
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final List<GarbageCollectorMXBean> COLLECTORS = ManagementFactory.getGarbageCollectorMXBeans();
+	private static final boolean CPU_TIME = THREADS.isThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+	private static final com.sun.management.ThreadMXBean ALLOCATIONS = getAllocations();
+
+	private final long wallMillis;
+	private final long cpuMillis;
+	private final long allocatedBytes;
+	private final long gcMillis;
+	private final boolean partial;
+
+	public TestProfile(long wallMillis, long cpuMillis, long allocatedBytes, long gcMillis, boolean partial) {
+		this.wallMillis = wallMillis;
+		this.cpuMillis = cpuMillis;
+		this.allocatedBytes = allocatedBytes;
+		this.gcMillis = gcMillis;
+		this.partial = partial;
+	}
+
+	/**
+	 * Start measuring the test run by the current thread.
+	 */
+	public static Probe start() {
+		return new Probe(Thread.currentThread().getId());
+	}
+
+	public long getWallMillis() {
+		return wallMillis;
+	}
+
+	public long getCpuMillis() {
+		return cpuMillis;
+	}
+
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public long getGcMillis() {
+		return gcMillis;
+	}
+
+	/**
+	 * @return true if the test ran in a thread other than the one measured, so CPU time and allocation are too low
+	 */
+	public boolean isPartial() {
+		return partial;
+	}
+
+	private static com.sun.management.ThreadMXBean getAllocations() {
+		try {
+			if (THREADS instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+				if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+					return threads;
+				}
+			}
+		} catch (LinkageError e) {
+			// Not a HotSpot JVM
+		}
+		return null;
+	}
+
+	private static long getCollectionMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean collector : COLLECTORS) {
+			long time = collector.getCollectionTime();
+			if (time > 0) {
+				millis += time;
+			}
+		}
+		return millis;
+	}
+
+	/**
+	 * The counters at the start of a test. The test may be finished by another thread, such as when it times out, so
+	 * the thread is given by its id.
+	 */
+	public static class Probe {
+		private final long threadId;
+		private final long startNanos;
+		private final long startCpu;
+		private final long startAllocated;
+		private final long startGc;
+
+		Probe(long threadId) {
+			this.threadId = threadId;
+			this.startNanos = System.nanoTime();
+			this.startCpu = CPU_TIME ? THREADS.getThreadCpuTime(threadId) : -1;
+			this.startAllocated = ALLOCATIONS != null ? ALLOCATIONS.getThreadAllocatedBytes(threadId) : -1;
+			this.startGc = getCollectionMillis();
+		}
+
+		/**
+		 * @param partial Whether the test ran in another thread, see {@link TestProfile#isPartial()}
+		 */
+		public TestProfile stop(boolean partial) {
+			long wall = (System.nanoTime() - startNanos) / 1000000;
+			long cpu = startCpu >= 0 ? THREADS.getThreadCpuTime(threadId) : -1;
+			long allocated = startAllocated >= 0 ? ALLOCATIONS.getThreadAllocatedBytes(threadId) : -1;
+			return new TestProfile(wall, cpu >= 0 ? (cpu - startCpu) / 1000000 : -1, allocated >= 0 ? allocated
+					- startAllocated : -1, getCollectionMillis() - startGc, partial);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link TestProfile}s servers reported for the tests run by this JVM, to find the tests worth optimizing or
+ * isolating. When the JVM exits, the top tests by duration, CPU time, allocation and garbage collection are written
+ * to target/junit-remote-profile.txt, unless the junit.remote.profile system property gives another file, or is empty
+ * to turn this off. junit.remote.profile.top is the number of tests in each list, 20 by default. Tests whose CPU time
+ * and allocation are partial, see {@link TestProfile#isPartial()}, are marked with a *.
+ */
+public class TestProfiles {
+
+	private static final Logger log = LoggerFactory.getLogger(TestProfiles.class);
+
+	private static final TestProfiles INSTANCE = new TestProfiles(System.getProperty("junit.remote.profile",
+			"target/junit-remote-profile.txt"), Integer.getInteger("junit.remote.profile.top", 20));
+
+	private final File file;
+	private final int top;
+	private final ConcurrentMap<String, TestProfile> profiles = new ConcurrentHashMap<String, TestProfile>();
+
+	public TestProfiles(String path, int top) {
+		this.file = path == null || path.trim().length() == 0 ? null : new File(path);
+		this.top = top;
+		if (file == null) {
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				report();
+			}
+		});
+	}
+
+	public static TestProfiles get() {
+		return INSTANCE;
+	}
+
+	public void record(Class<?> testClass, String methodName, TestProfile profile) {
+		if (file != null) {
+			profiles.put(testClass.getName() + "#" + methodName, profile);
+		}
+	}
+
+	@Override
+	public String toString() {
+		List<Map.Entry<String, TestProfile>> tests = new ArrayList<Map.Entry<String, TestProfile>>(profiles.entrySet());
+		long wall = 0;
+		long cpu = 0;
+		long allocated = 0;
+		boolean partial = false;
+		for (Map.Entry<String, TestProfile> test : tests) {
+			partial |= test.getValue().isPartial();
+			wall += Math.max(0, test.getValue().getWallMillis());
+			cpu += Math.max(0, test.getValue().getCpuMillis());
+			allocated += Math.max(0, test.getValue().getAllocatedBytes());
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(tests.size()).append(" tests ran for ").append(wall).append(" ms, using ").append(cpu)
+				.append(" ms of CPU and allocating ").append(allocated / (1024 * 1024)).append(" MB\n");
+		append(sb, "Slowest", tests, new Comparator<TestProfile>() {
+			@Override
+			public int compare(TestProfile p1, TestProfile p2) {
+				return compareLongs(p2.getWallMillis(), p1.getWallMillis());
+			}
+		});
+		append(sb, "Most CPU", tests, new Comparator<TestProfile>() {
+			@Override
+			public int compare(TestProfile p1, TestProfile p2) {
+				return compareLongs(p2.getCpuMillis(), p1.getCpuMillis());
+			}
+		});
+		append(sb, "Most allocating", tests, new Comparator<TestProfile>() {
+			@Override
+			public int compare(TestProfile p1, TestProfile p2) {
+				return compareLongs(p2.getAllocatedBytes(), p1.getAllocatedBytes());
+			}
+		});
+		append(sb, "Most garbage collection", tests, new Comparator<TestProfile>() {
+			@Override
+			public int compare(TestProfile p1, TestProfile p2) {
+				return compareLongs(p2.getGcMillis(), p1.getGcMillis());
+			}
+		});
+		if (partial) {
+			sb.append("\n* ran in a thread of its own because of its timeout, so its CPU and allocation are too low\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Append the top tests by the given order, one per line, with all their values in columns.
+	 */
+	private void append(StringBuilder sb, String title, List<Map.Entry<String, TestProfile>> tests,
+			final Comparator<TestProfile> order) {
+		Collections.sort(tests, new Comparator<Map.Entry<String, TestProfile>>() {
+			@Override
+			public int compare(Map.Entry<String, TestProfile> e1, Map.Entry<String, TestProfile> e2) {
+				int c = order.compare(e1.getValue(), e2.getValue());
+				return c != 0 ? c : e1.getKey().compareTo(e2.getKey());
+			}
+		});
+		sb.append('\n').append(title).append(":\n");
+		sb.append(String.format("%10s %10s %12s %8s  %s%n", "wall ms", "cpu ms", "alloc KB", "gc ms", "test"));
+		for (Map.Entry<String, TestProfile> test : tests.subList(0, Math.min(top, tests.size()))) {
+			TestProfile p = test.getValue();
+			sb.append(String.format("%10d %10d %12d %8d  %s%n", p.getWallMillis(), p.getCpuMillis(),
+					p.getAllocatedBytes() < 0 ? -1 : p.getAllocatedBytes() / 1024, p.getGcMillis(), test.getKey() + (p.isPartial() ? " *" : "")));
+		}
+	}
+
+	private static int compareLongs(long l1, long l2) {
+		return l1 < l2 ? -1 : l1 == l2 ? 0 : 1;
+	}
+
+	/**
+	 * Write the report to the file, if any tests were profiled.
+	 */
+	synchronized void report() {
+		if (profiles.isEmpty()) {
+			return;
+		}
+		try {
+			if (file.getAbsoluteFile().getParentFile() != null) {
+				file.getAbsoluteFile().getParentFile().mkdirs();
+			}
+			OutputStream out = new FileOutputStream(file);
+			try {
+				out.write(toString().getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+			log.info("Wrote the profile of {} tests to {}", profiles.size(), file);
+		} catch (IOException e) {
+			log.warn("Unable to save test profiles to {}: {}", file, e.toString());
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.tradeshift.test.remote.internal;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The failure of a test which ran for longer than its timeout. The stack trace is where the thread running the test
+ * was stuck, and the message tells which locks it held and waited for, with the stack of the thread holding the lock
+ * it waited for, as that is usually the other half of a deadlock.
+ */
+public class TestTimedOutException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public TestTimedOutException(String message, StackTraceElement[] stackTrace) {
+		super(message);
+		setStackTrace(stackTrace);
+	}
+
+	/**
+	 * Capture the state of a thread running a test which timed out.
+	 */
+	public static TestTimedOutException capture(Thread thread, long timeout) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		ThreadInfo info = getThreadInfo(threads, thread.getId());
+		if (info == null) {
+			return new TestTimedOutException("Test timed out after " + timeout + " ms", thread.getStackTrace());
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("Test timed out after ").append(timeout).append(" ms, thread ");
+		describe(info, sb);
+		if (info.getLockOwnerId() >= 0) {
+			ThreadInfo owner = getThreadInfo(threads, info.getLockOwnerId());
+			if (owner != null) {
+				sb.append("\nThe lock is held by ");
+				describe(owner, sb);
+				for (StackTraceElement element : owner.getStackTrace()) {
+					sb.append("\n\tat ").append(element);
+				}
+			}
+		}
+		return new TestTimedOutException(sb.toString(), info.getStackTrace());
+	}
+
+	private static ThreadInfo getThreadInfo(ThreadMXBean threads, long id) {
+		boolean monitors = threads.isObjectMonitorUsageSupported();
+		boolean synchronizers = threads.isSynchronizerUsageSupported();
+		ThreadInfo[] infos = threads.getThreadInfo(new long[] { id }, monitors, synchronizers);
+		return infos.length > 0 ? infos[0] : null;
+	}
+
+	private static void describe(ThreadInfo info, StringBuilder sb) {
+		sb.append('"').append(info.getThreadName()).append("\" ").append(info.getThreadState());
+		if (info.getLockName() != null) {
+			sb.append(" on ").append(info.getLockName());
+			if (info.getLockOwnerName() != null) {
+				sb.append(" held by \"").append(info.getLockOwnerName()).append('"');
+			}
+		}
+		MonitorInfo[] monitors = info.getLockedMonitors();
+		LockInfo[] synchronizers = info.getLockedSynchronizers();
+		if (monitors.length > 0 || synchronizers.length > 0) {
+			sb.append(", holding");
+			for (MonitorInfo monitor : monitors) {
+				sb.append(' ').append(monitor);
+			}
+			for (LockInfo synchronizer : synchronizers) {
+				sb.append(' ').append(synchronizer);
+			}
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package com.tradeshift.test.remote.internal;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fails tests which run for longer than their timeout, so a test which hangs doesn't hold a worker forever.
+ *
+ * When a test times out, the thread running it is interrupted, and a {@link TestTimedOutException} with its stack is
+ * reported as the failure of the test, which is then finished. Anything the test reports after this is dropped. Most
+ * tests stop when interrupted, and the run goes on with the next test. A test which is still running
+ * {@link #ABANDON_AFTER} ms later is abandoned: the run is ended without it, and the caller is told, so it can replace
+ * the thread which is stuck.
+ *
+ * The scheduler thread only decides that a test timed out and interrupts it, so a run whose client is slow or whose
+ * test is stuck writing can't hold up the timeouts of the other runs. Reporting the failure and abandoning the run may
+ * block on the response, so they are done by threads of their own.
+ */
+public class TestTimeouts {
+
+	private static final Logger log = LoggerFactory.getLogger(TestTimeouts.class);
+
+	/**
+	 * How long a test which timed out has to stop after being interrupted.
+	 */
+	static final long ABANDON_AFTER = 10000;
+
+	private final ScheduledExecutorService scheduler;
+	private final ExecutorService reporter;
+	private final ServerMetrics metrics;
+
+	public TestTimeouts(ServerMetrics metrics) {
+		this.metrics = metrics;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(daemon("test-timeouts"));
+		this.reporter = Executors.newCachedThreadPool(daemon("test-timeouts-report"));
+	}
+
+	private static ThreadFactory daemon(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Watch the tests run by the current thread.
+	 *
+	 * @param delegate Receives the events of the tests, including the failures of tests which time out
+	 * @param timeout Milliseconds each test may run
+	 * @param abandon Called if a test doesn't stop after timing out, after which no more events are passed on
+	 */
+	public Listener watch(RunListener delegate, long timeout, Runnable abandon) {
+		return new Listener(delegate, timeout, Thread.currentThread(), abandon);
+	}
+
+	/**
+	 * Passes on the events of the tests run by one thread. The state of the tests is guarded by the listener, which is
+	 * never held while calling the delegate. Calls to the delegate are serialized by a lock of their own, under which
+	 * the timeouts not yet reported are passed on first, so a timeout can't come between the events of a test.
+	 */
+	public class Listener extends RunListener {
+		private final RunListener delegate;
+		private final long timeout;
+		private final Thread thread;
+		private final Runnable abandon;
+		private final Object events = new Object();
+		private final Queue<Failure> unreported = new LinkedList<Failure>();
+		private final Set<Description> timedOut = new HashSet<Description>();
+		private Description current;
+		private ScheduledFuture<?> pending;
+		private boolean abandoned;
+		private boolean anyTimedOut;
+
+		Listener(RunListener delegate, long timeout, Thread thread, Runnable abandon) {
+			this.delegate = delegate;
+			this.timeout = timeout;
+			this.thread = thread;
+			this.abandon = abandon;
+		}
+
+		@Override
+		public void testStarted(final Description description) throws Exception {
+			synchronized (events) {
+				reportTimeouts();
+				synchronized (this) {
+					if (abandoned) {
+						return;
+					}
+					current = description;
+					pending = scheduler.schedule(new Runnable() {
+						@Override
+						public void run() {
+							timedOut(description);
+						}
+					}, timeout, TimeUnit.MILLISECONDS);
+				}
+				delegate.testStarted(description);
+			}
+		}
+
+		@Override
+		public void testFinished(Description description) throws Exception {
+			synchronized (events) {
+				reportTimeouts();
+				synchronized (this) {
+					if (current == description) {
+						current = null;
+						pending.cancel(false);
+					}
+					if (timedOut.remove(description)) {
+						// The test stopped after all, so the interrupt must not hit the next test
+						Thread.interrupted();
+						return;
+					}
+					if (abandoned) {
+						return;
+					}
+				}
+				delegate.testFinished(description);
+			}
+		}
+
+		@Override
+		public void testFailure(Failure failure) throws Exception {
+			synchronized (events) {
+				if (isPassed(failure.getDescription())) {
+					delegate.testFailure(failure);
+				}
+			}
+		}
+
+		@Override
+		public void testAssumptionFailure(Failure failure) {
+			synchronized (events) {
+				if (isPassed(failure.getDescription())) {
+					delegate.testAssumptionFailure(failure);
+				}
+			}
+		}
+
+		@Override
+		public void testIgnored(Description description) throws Exception {
+			synchronized (events) {
+				if (isPassed(description)) {
+					delegate.testIgnored(description);
+				}
+			}
+		}
+
+		/**
+		 * Report the timeouts not yet reported, and tell if an event of the given test is to be passed on after them.
+		 * Must be called holding the events lock.
+		 */
+		private boolean isPassed(Description description) {
+			reportTimeouts();
+			synchronized (this) {
+				return !abandoned && !timedOut.contains(description);
+			}
+		}
+
+		/**
+		 * Pass on the failures of the tests which timed out, and finish them. Must be called holding the events lock.
+		 */
+		private void reportTimeouts() {
+			while (true) {
+				Failure failure;
+				synchronized (this) {
+					failure = unreported.poll();
+				}
+				if (failure == null) {
+					return;
+				}
+				try {
+					delegate.testFailure(failure);
+					delegate.testFinished(failure.getDescription());
+				} catch (Exception e) {
+					log.debug("Unable to report timeout of {}: {}", failure.getDescription(), e.toString());
+				}
+			}
+		}
+
+		private void timedOut(final Description description) {
+			synchronized (this) {
+				if (current != description || abandoned) {
+					return;
+				}
+				metrics.timedOut();
+				TestTimedOutException e = TestTimedOutException.capture(thread, timeout);
+				log.warn("{} timed out after {} ms, interrupting it at {}", new Object[] { description, timeout,
+						e.getStackTrace().length > 0 ? e.getStackTrace()[0] : "an unknown place" });
+				timedOut.add(description);
+				anyTimedOut = true;
+				unreported.add(new Failure(description, e));
+				thread.interrupt();
+				pending = scheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						abandon(description);
+					}
+				}, ABANDON_AFTER, TimeUnit.MILLISECONDS);
+			}
+			reporter.execute(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (events) {
+						reportTimeouts();
+					}
+				}
+			});
+		}
+
+		private void abandon(Description description) {
+			synchronized (this) {
+				if (current != description || abandoned) {
+					return;
+				}
+				abandoned = true;
+				log.warn("{} is still running {} ms after it was interrupted, abandoning {}", new Object[] { description,
+						ABANDON_AFTER, thread.getName() });
+			}
+			reporter.execute(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (events) {
+						reportTimeouts();
+					}
+					abandon.run();
+				}
+			});
+		}
+		/**
+		 * @return true if any test timed out
+		 */
+		public synchronized boolean hasTimedOut() {
+			return anyTimedOut;
+		}
+
+		/**
+		 * Stop watching, once the tests are done.
+		 */
+		public synchronized void stop() {
+			if (pending != null) {
+				pending.cancel(false);
+			}
+			current = null;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import junit.framework.AssertionFailedError;
+import org.junit.internal.AssumptionViolatedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the line based protocol written by {@link TextResultWriter}, which is also what older servers send.
+ */
+public class TextResultReader implements ResultReader {
+
+	private static final Logger log = LoggerFactory.getLogger(TextResultReader.class);
+
+	private final Charset charset;
+
+	public TextResultReader(String encoding) {
+		this.charset = Charset.forName(encoding == null ? "ISO-8859-1" : encoding);
+	}
+
+	@Override
+	public void read(InputStream in, ResultHandler handler) throws Throwable {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset));
+		String line = null;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith("E")) {
+				output(handler, true, line);
+			} else if (line.startsWith("O")) {
+				output(handler, false, line);
+			} else if (line.startsWith("RSUCCESS")) {
+				return;
+			} else if (line.startsWith("RERROR")) {
+				StringBuilder error = new StringBuilder(line.substring(6));
+				while ((line = reader.readLine()) != null) {
+					error.append(line).append("\n");
+				}
+				throw new AssertionFailedError(error.toString());
+			} else if (line.length() > 0 && "SFXAI".indexOf(line.charAt(0)) != -1) {
+				int tab = line.indexOf('\t');
+				String methodName = Utils.unescape(line.substring(1, tab == -1 ? line.length() : tab));
+				String detail = tab == -1 ? null : Utils.unescape(line.substring(tab + 1));
+				switch (line.charAt(0)) {
+				case 'S':
+					handler.testStarted(methodName);
+					break;
+				case 'F':
+					handler.testFinished(methodName);
+					break;
+				case 'X':
+					handler.testFailure(methodName, new AssertionFailedError(detail));
+					break;
+				case 'A':
+					handler.testAssumptionFailure(methodName, new AssumptionViolatedException(detail));
+					break;
+				case 'I':
+					handler.testIgnored(methodName);
+					break;
+				}
+			} else {
+				log.error("Protocol error in response: {}", line);
+			}
+		}
+	}
+
+	private void output(ResultHandler handler, boolean err, String line) {
+		byte[] b = (line.substring(1).trim() + "\n").getBytes();
+		handler.output(err, b, 0, b.length);
+	}
+}
@@ -0,0 +1,117 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+/**
+ * The original line based protocol. Output lines are prefixed with O or E, and the run ends with a RSUCCESS or RERROR
+ * line. When events are enabled, each test event is sent as a separate line.
+ */
+public class TextResultWriter implements ResultWriter {
+
+	private final OutputStream os;
+	private final boolean events;
+	private final LineBreakingStream out;
+	private final LineBreakingStream err;
+	private final OutputStream limitedOut;
+	private final OutputStream limitedErr;
+	private String result = "RSUCCESS";
+
+	/**
+	 * @param maxOutput Maximum number of output bytes to send, or 0 for no limit
+	 */
+	public TextResultWriter(OutputStream os, boolean events, long maxOutput) {
+		this.os = new BufferedOutputStream(os, Protocol.CHUNK_SIZE);
+		this.events = events;
+		this.out = new LineBreakingStream('O', this.os);
+		this.err = new LineBreakingStream('E', this.os);
+		LimitedOutputStream.Limit limit = new LimitedOutputStream.Limit(maxOutput);
+		this.limitedOut = new LimitedOutputStream(out, limit, this);
+		this.limitedErr = new LimitedOutputStream(err, limit, this);
+	}
+
+	@Override
+	public OutputStream getOut() {
+		return limitedOut;
+	}
+
+	@Override
+	public OutputStream getErr() {
+		return limitedErr;
+	}
+
+	@Override
+	public void timing(long queueMillis, long runMillis) {
+		// Not supported by the text protocol
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		os.flush();
+	}
+
+	@Override
+	public void testStarted(Description description) throws IOException {
+		event('S', description, null);
+	}
+
+	@Override
+	public void testFinished(Description description) throws IOException {
+		event('F', description, null);
+	}
+
+	@Override
+	public void testFailure(Failure failure) throws IOException {
+		result = "RERROR" + failure.getTrace();
+		event('X', failure.getDescription(), failure.getTrace());
+	}
+
+	@Override
+	public void testAssumptionFailure(Failure failure) throws IOException {
+		event('A', failure.getDescription(), failure.getMessage());
+	}
+
+	@Override
+	public void testIgnored(Description description) throws IOException {
+		event('I', description, null);
+	}
+
+	@Override
+	public void testProfile(Description description, TestProfile profile) {
+		// Not supported by the text protocol
+	}
+
+	@Override
+	public synchronized void done() throws IOException {
+		println(events ? "RSUCCESS" : result);
+	}
+
+	@Override
+	public synchronized void error(String message) throws IOException {
+		println("RERROR" + message);
+	}
+
+	private synchronized void event(char type, Description description, String detail) throws IOException {
+		if (!events) {
+			return;
+		}
+		String methodName = description.getMethodName();
+		StringBuilder line = new StringBuilder().append(type).append(Utils.escape(methodName == null ? "" : methodName));
+		if (detail != null) {
+			line.append('\t').append(Utils.escape(detail));
+		}
+		println(line.toString());
+	}
+
+	private void println(String line) throws IOException {
+		out.endLine();
+		err.endLine();
+		os.write(line.getBytes("ISO-8859-1"));
+		os.write('\n');
+		os.flush();
+	}
+}
@@ -1,12 +1,25 @@
 package com.tradeshift.test.remote.internal;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
+import org.junit.runner.Description;
 import org.junit.runner.Runner;
 import org.junit.runner.manipulation.Filter;
 import org.junit.runner.manipulation.Filterable;
@@ -23,6 +36,32 @@ public class Utils {
 		}
     }
     
+    /**
+     * Create a filter which matches any test with one of the given method names.
+     */
+    public static Filter matchMethods(String... methodNames) {
+        final Set<String> names = new HashSet<String>(Arrays.asList(methodNames));
+        return new Filter() {
+            @Override
+            public boolean shouldRun(Description description) {
+                if (description.isTest()) {
+                    return names.contains(description.getMethodName());
+                }
+                for (Description child : description.getChildren()) {
+                    if (shouldRun(child)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public String describe() {
+                return "Methods " + names;
+            }
+        };
+    }
+
     public static void sort(Runner runner, Sorter sorter) {
 		if (runner instanceof Sortable) {
 			Sortable sortable = (Sortable) runner;
@@ -46,6 +85,43 @@ public class Utils {
         return out.toString();
     }
 
+    /**
+     * Escape a string so it can be sent as a single protocol line.
+     */
+    public static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    public static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                switch (n) {
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                default: sb.append(n);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
     @SuppressWarnings("unchecked")
     public static Runner createRunner(String runnerClassName, Class<?> testClass) {
         try {
@@ -71,6 +147,53 @@ public class Utils {
         }
     }
     
+    /**
+     * Find the names of all top level classes in a package and its subpackages, in directories and jar files on the
+     * class path.
+     */
+    public static List<String> findClasses(String packageName) throws IOException {
+        String path = packageName.replace('.', '/');
+        List<String> classes = new ArrayList<String>();
+        Enumeration<URL> roots = Thread.currentThread().getContextClassLoader().getResources(path);
+        while (roots.hasMoreElements()) {
+            URL root = roots.nextElement();
+            if ("file".equals(root.getProtocol())) {
+                try {
+                    findClasses(new File(root.toURI()), packageName, classes);
+                } catch (URISyntaxException e) {
+                    throw new IOException("Invalid class path entry " + root);
+                }
+            } else if ("jar".equals(root.getProtocol())) {
+                JarFile jar = ((JarURLConnection) root.openConnection()).getJarFile();
+                for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+                    String name = entries.nextElement().getName();
+                    if (name.startsWith(path + "/") && isTopLevelClass(name)) {
+                        classes.add(name.substring(0, name.length() - 6).replace('/', '.'));
+                    }
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static void findClasses(File dir, String packageName, List<String> classes) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                findClasses(file, packageName + "." + file.getName(), classes);
+            } else if (isTopLevelClass(file.getName())) {
+                classes.add(packageName + "." + file.getName().substring(0, file.getName().length() - 6));
+            }
+        }
+    }
+
+    private static boolean isTopLevelClass(String fileName) {
+        return fileName.endsWith(".class") && fileName.indexOf('$') == -1;
+    }
+
     public static <A extends Annotation> A findAnnotation(Class<?> clazz, Class<A> annotationType) {
         A annotation = clazz.getAnnotation(annotationType);
         if (annotation != null) {
@@ -0,0 +1,80 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Tells a listener the first time writing to a response fails, which means the client has gone away, so the tests
+ * writing the response can be stopped instead of running on for nobody.
+ */
+public class WatchedOutputStream extends OutputStream {
+
+	private final OutputStream delegate;
+	private final Runnable onFailure;
+	private volatile boolean failed;
+	private volatile boolean detached;
+
+	public WatchedOutputStream(OutputStream delegate, Runnable onFailure) {
+		this.delegate = delegate;
+		this.onFailure = onFailure;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkDetached();
+		try {
+			delegate.write(b);
+		} catch (IOException e) {
+			failed();
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkDetached();
+		try {
+			delegate.write(b, off, len);
+		} catch (IOException e) {
+			failed();
+			throw e;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		checkDetached();
+		try {
+			delegate.flush();
+		} catch (IOException e) {
+			failed();
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	/**
+	 * Let nothing more through, without telling the listener, once the response has been ended while something may
+	 * still write to it.
+	 */
+	public void detach() {
+		detached = true;
+	}
+
+	private void checkDetached() throws IOException {
+		if (detached) {
+			throw new IOException("The response has been ended");
+		}
+	}
+
+	private void failed() {
+		if (!failed) {
+			failed = true;
+			onFailure.run();
+		}
+	}
+}
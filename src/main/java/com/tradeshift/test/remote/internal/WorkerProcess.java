@@ -0,0 +1,201 @@
+package com.tradeshift.test.remote.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A RemoteServer running in a JVM of its own, started by a {@link Supervisor}. The worker listens on a port chosen by
+ * the system, which is read from the line it prints when it has started. Everything else it prints is copied to the
+ * supervisor's System.out, prefixed with the name of the worker.
+ */
+public class WorkerProcess {
+
+	private static final Logger log = LoggerFactory.getLogger(WorkerProcess.class);
+
+	private static final Pattern RUNNING = Pattern.compile("Server running at (http://\\S+)");
+
+	private final String name;
+	private final Process process;
+	private final CountDownLatch started = new CountDownLatch(1);
+	private volatile String url;
+	private volatile boolean ready;
+	private volatile String retireReason;
+	private int requests;
+
+	public WorkerProcess(String name, List<String> command) throws IOException {
+		this.name = name;
+		this.process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		process.getOutputStream().close();
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				copyOutput(process.getInputStream(), System.out);
+			}
+		}, name + "-output");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private void copyOutput(InputStream in, PrintStream out) {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Matcher m = RUNNING.matcher(line);
+				if (url == null && m.find()) {
+					url = Endpoint.normalize(m.group(1));
+					started.countDown();
+				}
+				out.println("[" + name + "] " + line);
+			}
+		} catch (IOException e) {
+			log.debug("Unable to read output of {}: {}", name, e.toString());
+		} finally {
+			started.countDown();
+		}
+	}
+
+	/**
+	 * Wait until the worker has started and answers GET /-/ready with 200, which is after it has warmed up.
+	 *
+	 * @param startTimeout Milliseconds the worker may take to start and warm up
+	 * @return false if the worker exited or did not get ready in time
+	 */
+	public boolean awaitReady(long startTimeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + startTimeout;
+		if (!started.await(startTimeout, TimeUnit.MILLISECONDS) || url == null) {
+			return false;
+		}
+		long remaining;
+		while (isAlive() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+			try {
+				HttpResponse response = ConnectionPool.get().executeUnlimited(new URI(url + "-/ready"), "GET", null, null,
+						(int) Math.min(remaining, 1000), (int) Math.min(remaining, 10000));
+				response.getBody().close();
+				if (response.getStatus() == 200) {
+					ready = true;
+					return true;
+				}
+			} catch (IOException e) {
+				log.debug("{} is not ready: {}", name, e.toString());
+			} catch (URISyntaxException e) {
+				throw new IllegalStateException(e);
+			}
+			Thread.sleep(100);
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the worker has passed {@link #awaitReady(long)} and is still running
+	 */
+	public boolean isReady() {
+		return ready && isAlive();
+	}
+
+	public boolean isAlive() {
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Why the worker should be replaced once it is done with its request, or null if it shouldn't.
+	 */
+	public String getRetireReason() {
+		return retireReason;
+	}
+
+	public void setRetireReason(String retireReason) {
+		this.retireReason = retireReason;
+	}
+
+	/**
+	 * The metrics of the worker, as answered by its /-/metrics, or null if they can't be fetched within a couple of
+	 * seconds.
+	 */
+	public String getMetrics() {
+		try {
+			HttpResponse response = ConnectionPool.get().executeUnlimited(new URI(url + "-/metrics"), "GET", null, null, 1000, 2000);
+			InputStream in = response.getBody();
+			try {
+				return Utils.toString(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.debug("Unable to get metrics of {}: {}", name, e.toString());
+			return null;
+		} catch (URISyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The share of its maximum heap a worker retained after its last garbage collection, in percent, or -1 if it
+	 * isn't known.
+	 */
+	public static int getHeapUsage(String metrics) {
+		long retained = getMetric(metrics, "heap.retained");
+		long max = getMetric(metrics, "heap.max");
+		return retained < 0 || max <= 0 ? -1 : (int) (retained * 100 / max);
+	}
+
+	/**
+	 * A metric of a worker, or -1 if it isn't there.
+	 */
+	public static long getMetric(String metrics, String name) {
+		if (metrics == null) {
+			return -1;
+		}
+		Matcher m = Pattern.compile("^" + Pattern.quote(name) + " (\\d+)$", Pattern.MULTILINE).matcher(metrics);
+		return m.find() ? Long.parseLong(m.group(1)) : -1;
+	}
+
+	public void destroy() {
+		process.destroy();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The url of the worker, ending with a slash, or null until it has started.
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * The number of requests sent to the worker. Only used by the thread the worker is given to.
+	 */
+	public int getRequests() {
+		return requests;
+	}
+
+	public int addRequest() {
+		return ++requests;
+	}
+
+	@Override
+	public String toString() {
+		return name + " " + (url == null ? "starting" : url) + " " + requests + " requests";
+	}
+}
@@ -0,0 +1,341 @@
+package com.tradeshift.test.remote.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.internal.AssumptionViolatedException;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+public class BinaryProtocolTest {
+
+	private static final Description A = Description.createTestDescription(BinaryProtocolTest.class, "a");
+
+	@Test
+	public void everyFrameRoundTrips() throws Throwable {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryResultWriter writer = new BinaryResultWriter(bytes, 0);
+		writer.testStarted(A);
+		writer.getOut().write("out".getBytes("UTF-8"));
+		writer.getErr().write("err".getBytes("UTF-8"));
+		writer.testFailure(new Failure(A, new IllegalStateException("boom", new IllegalArgumentException("cause"))));
+		writer.testAssumptionFailure(new Failure(A, new AssumptionViolatedException("assumed")));
+		writer.testProfile(A, new TestProfile(1, 2, 3, 4, false));
+		writer.testFinished(A);
+		writer.testIgnored(Description.createTestDescription(BinaryProtocolTest.class, "b"));
+		writer.testStarted(Description.createSuiteDescription(BinaryProtocolTest.class));
+		writer.timing(5, 6);
+		writer.done();
+
+		Handler handler = read(bytes.toByteArray());
+		assertEquals(Arrays.asList("started a", "out 3", "err 3", "failure a", "assumption a", "profile a",
+				"finished a", "ignored b", "started ", "timing 5 6"), handler.events);
+		assertEquals("out", handler.out.toString("UTF-8"));
+		assertEquals("err", handler.err.toString("UTF-8"));
+
+		Throwable failure = handler.throwables.get(0);
+		assertEquals(IllegalStateException.class, failure.getClass());
+		assertEquals("boom", failure.getMessage());
+		assertEquals("cause", failure.getCause().getMessage());
+		assertEquals(AssumptionViolatedException.class, handler.throwables.get(1).getClass());
+
+		TestProfile profile = handler.profiles.get(0);
+		assertEquals(1, profile.getWallMillis());
+		assertEquals(2, profile.getCpuMillis());
+		assertEquals(3, profile.getAllocatedBytes());
+		assertEquals(4, profile.getGcMillis());
+		assertFalse(profile.isPartial());
+	}
+
+	@Test
+	public void errorEndsTheRun() throws Throwable {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new BinaryResultWriter(bytes, 0).error("No tests remaining");
+		try {
+			read(bytes.toByteArray());
+			fail();
+		} catch (AssertionError e) {
+			assertEquals("No tests remaining", e.getMessage());
+		}
+	}
+
+	@Test
+	public void otherVersionIsRejected() throws Throwable {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		frame(out, Protocol.HELLO, intPayload(Protocol.BINARY + 1));
+		frame(out, Protocol.DONE, new byte[0]);
+		try {
+			read(bytes.toByteArray());
+			fail();
+		} catch (IOException e) {
+			assertEquals("Unsupported protocol version 3", e.getMessage());
+		}
+	}
+
+	@Test
+	public void unknownFramesAreSkipped() throws Throwable {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		frame(out, Protocol.HELLO, intPayload(Protocol.BINARY));
+		frame(out, 0x7f, new byte[] { 1, 2, 3 });
+		frame(out, Protocol.TEST_STARTED, stringPayload("a"));
+		frame(out, Protocol.DONE, new byte[0]);
+		assertEquals(Arrays.asList("started a"), read(bytes.toByteArray()).events);
+	}
+
+	@Test
+	public void truncatedResponseFails() throws Throwable {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new BinaryResultWriter(bytes, 0).testStarted(A);
+		try {
+			read(bytes.toByteArray());
+			fail();
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void textIsReadFromOlderServers() throws Throwable {
+		assertTrue(Protocol.isBinary(Protocol.CONTENT_TYPE));
+		assertTrue(Protocol.isBinary(Protocol.CONTENT_TYPE + "; charset=UTF-8"));
+		assertFalse(Protocol.isBinary("text/plain"));
+		assertFalse(Protocol.isBinary(null));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TextResultWriter writer = new TextResultWriter(bytes, true, 0);
+		writer.testStarted(A);
+		writer.getOut().write("out\n".getBytes("UTF-8"));
+		writer.testFailure(new Failure(A, new IllegalStateException("boom")));
+		writer.testFinished(A);
+		writer.done();
+
+		Handler handler = new Handler();
+		new TextResultReader("UTF-8").read(new ByteArrayInputStream(bytes.toByteArray()), handler);
+		assertEquals(Arrays.asList("started a", "out 4", "failure a", "finished a"), handler.events);
+		assertEquals("out\n", handler.out.toString("UTF-8"));
+	}
+
+	@Test
+	public void outputIsSplitIntoChunks() throws Throwable {
+		byte[] out = new byte[2 * Protocol.CHUNK_SIZE + 100];
+		for (int i = 0; i < out.length; i++) {
+			out[i] = (byte) i;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryResultWriter writer = new BinaryResultWriter(bytes, 0);
+		writer.getOut().write(out, 0, 100);
+		writer.getErr().write('e');
+		writer.getOut().write(out, 100, out.length - 100);
+		writer.testStarted(A);
+		writer.getErr().write('e');
+		writer.done();
+
+		Handler handler = read(bytes.toByteArray());
+		// Each stream has a buffer of its own, so a full chunk of stdout is sent before the pending stderr
+		assertEquals(Arrays.asList("out " + Protocol.CHUNK_SIZE, "out " + Protocol.CHUNK_SIZE, "out 100", "err 1",
+				"started a", "err 1"), handler.events);
+		assertArrayEquals(out, handler.out.toByteArray());
+		assertEquals("ee", handler.err.toString("UTF-8"));
+	}
+
+	@Test
+	public void framesLargerThanTheBufferAreRead() throws Throwable {
+		char[] message = new char[100000];
+		Arrays.fill(message, 'x');
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryResultWriter writer = new BinaryResultWriter(bytes, 0);
+		writer.testFailure(new Failure(A, new IllegalStateException(new String(message))));
+		writer.getOut().write("after".getBytes("UTF-8"));
+		writer.testFinished(A);
+		writer.done();
+
+		Handler handler = read(bytes.toByteArray());
+		assertEquals(Arrays.asList("failure a", "out 5", "finished a"), handler.events);
+		assertEquals(new String(message), handler.throwables.get(0).getMessage());
+		assertEquals("after", handler.out.toString("UTF-8"));
+	}
+
+	@Test
+	public void partialProfileRoundTrips() throws Throwable {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryResultWriter writer = new BinaryResultWriter(bytes, 0);
+		writer.testProfile(A, new TestProfile(1, -1, -1, 4, true));
+		writer.done();
+
+		TestProfile profile = read(bytes.toByteArray()).profiles.get(0);
+		assertEquals(-1, profile.getCpuMillis());
+		assertEquals(-1, profile.getAllocatedBytes());
+		assertTrue(profile.isPartial());
+	}
+
+	@Test
+	public void profileWithoutPartialFlagIsComplete() throws Throwable {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		frame(out, Protocol.HELLO, intPayload(Protocol.BINARY));
+		// Leaves non-zero bytes in the buffer of the reader where the flag would be
+		byte[] stale = new byte[100];
+		Arrays.fill(stale, (byte) 1);
+		frame(out, Protocol.STDOUT, stale);
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream payloadOut = new DataOutputStream(payload);
+		Protocol.writeString(payloadOut, "a");
+		for (int i = 1; i <= 4; i++) {
+			payloadOut.writeLong(i);
+		}
+		frame(out, Protocol.TEST_PROFILE, payload.toByteArray());
+		frame(out, Protocol.DONE, new byte[0]);
+
+		TestProfile profile = read(bytes.toByteArray()).profiles.get(0);
+		assertEquals(4, profile.getGcMillis());
+		assertFalse(profile.isPartial());
+	}
+
+	@Test
+	public void notSerializableThrowableIsSentAsItsStructure() throws Throwable {
+		NotSerializable thrown = new NotSerializable("not serializable", new IllegalArgumentException("cause"));
+		Throwable read = roundTrip(thrown);
+
+		assertEquals(RemoteThrowable.class, read.getClass());
+		assertEquals(NotSerializable.class.getName(), ((RemoteThrowable) read).getClassName());
+		assertEquals("not serializable", read.getMessage());
+		assertArrayEquals(thrown.getStackTrace(), read.getStackTrace());
+		assertEquals(IllegalArgumentException.class.getName(), ((RemoteThrowable) read.getCause()).getClassName());
+		assertEquals("cause", read.getCause().getMessage());
+		assertNull(read.getCause().getCause());
+	}
+
+	@Test
+	public void largeThrowableIsSentAsItsStructure() throws Throwable {
+		Throwable read = roundTrip(new Large(Protocol.MAX_SERIALIZED));
+
+		assertEquals(RemoteThrowable.class, read.getClass());
+		assertEquals(Large.class.getName(), ((RemoteThrowable) read).getClassName());
+		assertEquals("large", read.getMessage());
+	}
+
+	private static Throwable roundTrip(Throwable t) throws Throwable {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryResultWriter writer = new BinaryResultWriter(bytes, 0);
+		writer.testFailure(new Failure(A, t));
+		writer.done();
+		return read(bytes.toByteArray()).throwables.get(0);
+	}
+
+	private static Handler read(byte[] bytes) throws Throwable {
+		Handler handler = new Handler();
+		new BinaryResultReader().read(new ByteArrayInputStream(bytes), handler);
+		return handler;
+	}
+
+	private static void frame(DataOutputStream out, int type, byte[] payload) throws IOException {
+		out.writeByte(type);
+		out.writeInt(payload.length);
+		out.write(payload);
+	}
+
+	private static byte[] intPayload(int i) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new DataOutputStream(bytes).writeInt(i);
+		return bytes.toByteArray();
+	}
+
+	private static byte[] stringPayload(String s) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Protocol.writeString(new DataOutputStream(bytes), s);
+		return bytes.toByteArray();
+	}
+
+	private static class NotSerializable extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		@SuppressWarnings("unused")
+		private final Object state = new Object();
+
+		NotSerializable(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	private static class Large extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		@SuppressWarnings("unused")
+		private final byte[] state;
+
+		Large(int size) {
+			super("large");
+			state = new byte[size];
+		}
+	}
+
+	/**
+	 * Records the events as strings, copying the output, as the reader reuses its buffer.
+	 */
+	private static class Handler implements ResultHandler {
+		final List<String> events = new ArrayList<String>();
+		final List<Throwable> throwables = new ArrayList<Throwable>();
+		final List<TestProfile> profiles = new ArrayList<TestProfile>();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+		@Override
+		public void testStarted(String methodName) {
+			events.add("started " + methodName);
+		}
+
+		@Override
+		public void testFinished(String methodName) {
+			events.add("finished " + methodName);
+		}
+
+		@Override
+		public void testFailure(String methodName, Throwable t) {
+			events.add("failure " + methodName);
+			throwables.add(t);
+		}
+
+		@Override
+		public void testAssumptionFailure(String methodName, Throwable t) {
+			events.add("assumption " + methodName);
+			throwables.add(t);
+		}
+
+		@Override
+		public void testIgnored(String methodName) {
+			events.add("ignored " + methodName);
+		}
+
+		@Override
+		public void testProfile(String methodName, TestProfile profile) {
+			events.add("profile " + methodName);
+			profiles.add(profile);
+		}
+
+		@Override
+		public void timing(long queueMillis, long runMillis) {
+			events.add("timing " + queueMillis + " " + runMillis);
+		}
+
+		@Override
+		public void output(boolean err, byte[] b, int off, int len) {
+			events.add((err ? "err " : "out ") + len);
+			(err ? this.err : this.out).write(b, off, len);
+		}
+	}
+}
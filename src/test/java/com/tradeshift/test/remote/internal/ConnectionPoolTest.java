@@ -0,0 +1,115 @@
+package com.tradeshift.test.remote.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+	private ServerSocket server;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new ServerSocket(0);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						serve(server.accept());
+					}
+				} catch (IOException e) {
+					// Closed
+				}
+			}
+		}, "connection-pool-test");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Answer each request on the connection with 200 and a body of two bytes, until the client closes it.
+	 */
+	private static void serve(final Socket socket) {
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+					OutputStream out = socket.getOutputStream();
+					String line;
+					while ((line = in.readLine()) != null) {
+						if (line.length() == 0) {
+							out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes("ISO-8859-1"));
+							out.flush();
+						}
+					}
+				} catch (IOException e) {
+					// Closed
+				} finally {
+					try {
+						socket.close();
+					} catch (IOException ignore) {
+					}
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.start();
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		server.close();
+	}
+
+	@Test
+	public void explicitPort() {
+		assertEquals(4578, ConnectionPool.getPort(URI.create("http://localhost:4578/")));
+	}
+
+	@Test
+	public void defaultPort() {
+		assertEquals(80, ConnectionPool.getPort(URI.create("http://localhost/")));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void httpsIsRejected() {
+		ConnectionPool.getPort(URI.create("https://localhost/"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void httpsEndpointIsRejected() {
+		new EndpointPool(Arrays.asList(new Endpoint("https://localhost/")), new EndpointSelector.LeastOutstanding());
+	}
+
+	@Test(timeout = 10000)
+	public void unlimitedRequestDoesNotWaitForASlot() throws IOException {
+		ConnectionPool pool = new ConnectionPool(1, 30000, 1000);
+		URI uri = URI.create("http://localhost:" + server.getLocalPort() + "/");
+		HttpResponse running = pool.execute(uri, "POST", null, null, 1000);
+
+		HttpResponse probe = pool.executeUnlimited(uri, "GET", null, null, 1000, 1000);
+		assertEquals(200, probe.getStatus());
+		assertEquals("ok", Utils.toString(probe.getBody()));
+		probe.getBody().close();
+		assertEquals(2, pool.getOpened());
+
+		running.getBody().close();
+		HttpResponse next = pool.execute(uri, "GET", null, null, 1000);
+		next.getBody().close();
+		assertEquals("The connection of the probe is not kept", 2, pool.getOpened());
+		assertEquals(1, pool.getReused());
+	}
+}